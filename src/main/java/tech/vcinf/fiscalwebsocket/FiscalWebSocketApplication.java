@@ -2,8 +2,10 @@ package tech.vcinf.fiscalwebsocket;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FiscalWebSocketApplication {
 
     public static void main(String[] args) {
@@ -1,20 +1,20 @@
 package tech.vcinf.fiscalwebsocket.builder;
 
 import java.util.Map;
-import java.util.UUID;
 
 public class ConsStatServBuilder implements XmlBuilder {
+
+    private static final XmlTemplate TEMPLATE = XmlTemplate.compile(
+        "<consStatServ xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"4.00\">" +
+        "<tpAmb>{tpAmb}</tpAmb>" +
+        "<cUF>{cUF}</cUF>" +
+        "<xServ>STATUS</xServ>" +
+        "</consStatServ>"
+    );
+
     @Override
     public String build(Map<String, Object> data, String cnpj, String uf) {
         String ambiente = (String) data.getOrDefault("ambiente", "1"); // 1-Produção, 2-Homologação
-        String versao = "4.00"; // Pode ser parametrizado se necessário
-        return String.format(
-            "<consStatServ xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"%s\">" +
-            "<tpAmb>%s</tpAmb>" +
-            "<cUF>%s</cUF>" +
-            "<xServ>STATUS</xServ>" +
-            "</consStatServ>",
-            versao, ambiente, uf
-        );
+        return TEMPLATE.render(ambiente, uf);
     }
 }
@@ -0,0 +1,46 @@
+package tech.vcinf.fiscalwebsocket.builder;
+
+import java.util.Map;
+import java.util.Objects;
+
+public class ConsultaCadastroBuilder implements XmlBuilder {
+
+    private static final XmlTemplate TEMPLATE_CNPJ = XmlTemplate.compile(
+        "<ConsCad xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"2.00\">" +
+        "<infCons>" +
+        "<xServ>CONS-CAD</xServ>" +
+        "<UF>{UF}</UF>" +
+        "<CNPJ>{CNPJ}</CNPJ>" +
+        "</infCons>" +
+        "</ConsCad>"
+    );
+
+    private static final XmlTemplate TEMPLATE_CPF = XmlTemplate.compile(
+        "<ConsCad xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"2.00\">" +
+        "<infCons>" +
+        "<xServ>CONS-CAD</xServ>" +
+        "<UF>{UF}</UF>" +
+        "<CPF>{CPF}</CPF>" +
+        "</infCons>" +
+        "</ConsCad>"
+    );
+
+    @Override
+    public String build(Map<String, Object> data, String cnpj, String uf) {
+        // Documento do contribuinte consultado (não o do emitente)
+        Object documentoInformado = data.get("documento");
+        if (documentoInformado == null) {
+            documentoInformado = data.containsKey("CNPJ") ? data.get("CNPJ") : data.get("CPF");
+        }
+        String documento = Objects.toString(documentoInformado, "").replaceAll("\\D", "");
+        String ufConsulta = Objects.toString(data.get("uf"), uf);
+
+        if (documento.length() == 14) {
+            return TEMPLATE_CNPJ.render(ufConsulta, documento);
+        }
+        if (documento.length() == 11) {
+            return TEMPLATE_CPF.render(ufConsulta, documento);
+        }
+        throw new IllegalArgumentException("Documento para consulta cadastral deve ser um CNPJ (14 dígitos) ou CPF (11 dígitos).");
+    }
+}
@@ -0,0 +1,94 @@
+package tech.vcinf.fiscalwebsocket.builder;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Objects;
+
+public class EventoBuilder implements XmlBuilder {
+
+    private static final String TP_EVENTO_CANCELAMENTO = "110111";
+    private static final String TP_EVENTO_CARTA_CORRECAO = "110110";
+
+    private static final String X_COND_USO = "A Carta de Correcao e disciplinada pelo paragrafo 1o-A do art. 7o do Convenio S/N, " +
+        "de 15 de dezembro de 1970 e pode ser utilizada para regularizacao de erro ocorrido na emissao de documento fiscal, " +
+        "desde que o erro nao esteja relacionado com: I - as variaveis que determinam o valor do imposto tais como: base de calculo, " +
+        "aliquota, diferenca de preco, quantidade, valor da operacao ou da prestacao; II - a correcao de dados cadastrais que implique " +
+        "mudanca do remetente ou do destinatario; III - a data de emissao ou de saida.";
+
+    private static final DateTimeFormatter DH_EVENTO = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssxxx");
+
+    private static final String ENV_EVENTO_INICIO =
+        "<envEvento xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"1.00\">" +
+        "<idLote>{idLote}</idLote>" +
+        "<evento versao=\"1.00\">" +
+        "<infEvento Id=\"{Id}\">" +
+        "<cOrgao>{cOrgao}</cOrgao>" +
+        "<tpAmb>{tpAmb}</tpAmb>" +
+        "<CNPJ>{CNPJ}</CNPJ>" +
+        "<chNFe>{chNFe}</chNFe>" +
+        "<dhEvento>{dhEvento}</dhEvento>" +
+        "<tpEvento>{tpEvento}</tpEvento>" +
+        "<nSeqEvento>{nSeqEvento}</nSeqEvento>" +
+        "<verEvento>1.00</verEvento>";
+
+    private static final String ENV_EVENTO_FIM =
+        "</infEvento>" +
+        "</evento>" +
+        "</envEvento>";
+
+    private static final XmlTemplate TEMPLATE_CANCELAMENTO = XmlTemplate.compile(
+        ENV_EVENTO_INICIO +
+        "<detEvento versao=\"1.00\">" +
+        "<descEvento>Cancelamento</descEvento>" +
+        "<nProt>{nProt}</nProt>" +
+        "<xJust>{xJust}</xJust>" +
+        "</detEvento>" +
+        ENV_EVENTO_FIM
+    );
+
+    private static final XmlTemplate TEMPLATE_CARTA_CORRECAO = XmlTemplate.compile(
+        ENV_EVENTO_INICIO +
+        "<detEvento versao=\"1.00\">" +
+        "<descEvento>Carta de Correcao</descEvento>" +
+        "<xCorrecao>{xCorrecao}</xCorrecao>" +
+        "<xCondUso>{xCondUso}</xCondUso>" +
+        "</detEvento>" +
+        ENV_EVENTO_FIM
+    );
+
+    @Override
+    public String build(Map<String, Object> data, String cnpj, String uf) {
+        String ambiente = (String) data.getOrDefault("ambiente", "1");
+        String chave = Objects.toString(data.get("chNFe"), null);
+        String tpEvento = Objects.toString(data.get("tpEvento"), null);
+        String justificativa = Objects.toString(data.get("justificativa"), null);
+        int nSeqEvento = Integer.parseInt(Objects.toString(data.getOrDefault("nSeqEvento", "1")));
+        String idLote = Objects.toString(data.getOrDefault("idLote", String.valueOf(System.currentTimeMillis())));
+
+        if (chave == null || chave.length() != 44) {
+            throw new IllegalArgumentException("Chave de acesso (chNFe) deve ter 44 dígitos.");
+        }
+        if (justificativa == null || justificativa.length() < 15) {
+            throw new IllegalArgumentException("Justificativa/correção deve ter no mínimo 15 caracteres.");
+        }
+
+        String id = "ID" + tpEvento + chave + (nSeqEvento < 10 ? "0" : "") + nSeqEvento;
+        String dhEvento = OffsetDateTime.now().truncatedTo(ChronoUnit.SECONDS).format(DH_EVENTO);
+
+        if (TP_EVENTO_CANCELAMENTO.equals(tpEvento)) {
+            String nProt = Objects.toString(data.get("nProt"), null);
+            if (nProt == null || nProt.isEmpty()) {
+                throw new IllegalArgumentException("Protocolo de autorização (nProt) é obrigatório para o cancelamento.");
+            }
+            return TEMPLATE_CANCELAMENTO.render(idLote, id, uf, ambiente, cnpj, chave, dhEvento, tpEvento, nSeqEvento,
+                nProt, justificativa);
+        }
+        if (TP_EVENTO_CARTA_CORRECAO.equals(tpEvento)) {
+            return TEMPLATE_CARTA_CORRECAO.render(idLote, id, uf, ambiente, cnpj, chave, dhEvento, tpEvento, nSeqEvento,
+                justificativa, X_COND_USO);
+        }
+        throw new IllegalArgumentException("Tipo de evento não suportado: " + tpEvento);
+    }
+}
@@ -1,10 +1,27 @@
 package tech.vcinf.fiscalwebsocket.builder;
 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
 public class InutNFeBuilder implements XmlBuilder {
+
+    private static final XmlTemplate TEMPLATE = XmlTemplate.compile(
+        "<inutNFe xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"4.00\">" +
+        "<infInut Id=\"{Id}\">" +
+        "<tpAmb>{tpAmb}</tpAmb>" +
+        "<xServ>INUTILIZAR</xServ>" +
+        "<cUF>{cUF}</cUF>" +
+        "<ano>{ano}</ano>" +
+        "<CNPJ>{CNPJ}</CNPJ>" +
+        "<mod>55</mod>" +
+        "<serie>{serie}</serie>" +
+        "<nNFIni>{nNFIni}</nNFIni>" +
+        "<nNFFin>{nNFFin}</nNFFin>" +
+        "<xJust>{xJust}</xJust>" +
+        "</infInut>" +
+        "</inutNFe>"
+    );
+
     @Override
     public String build(Map<String, Object> data, String cnpj, String uf) {
         String ambiente = (String) data.getOrDefault("ambiente", "1");
@@ -13,24 +30,8 @@ public class InutNFeBuilder implements XmlBuilder {
         String numIni = (String) data.get("numIni");
         String numFin = (String) data.get("numFin");
         String justificativa = (String) data.get("justificativa");
-        String id = String.format("ID%s%s%s%s%s", uf, ano, cnpj, "55", serie, numIni);
+        String id = "ID" + uf + ano + cnpj + "55" + serie;
 
-        return String.format(
-            "<inutNFe xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"4.00\">" +
-            "<infInut Id=\"%s\">" +
-            "<tpAmb>%s</tpAmb>" +
-            "<xServ>INUTILIZAR</xServ>" +
-            "<cUF>%s</cUF>" +
-            "<ano>%s</ano>" +
-            "<CNPJ>%s</CNPJ>" +
-            "<mod>55</mod>" +
-            "<serie>%s</serie>" +
-            "<nNFIni>%s</nNFIni>" +
-            "<nNFFin>%s</nNFFin>" +
-            "<xJust>%s</xJust>" +
-            "</infInut>" +
-            "</inutNFe>",
-            id, ambiente, uf, ano, cnpj, serie, numIni, numFin, justificativa
-        );
+        return TEMPLATE.render(id, ambiente, uf, ano, cnpj, serie, numIni, numFin, justificativa);
     }
 }
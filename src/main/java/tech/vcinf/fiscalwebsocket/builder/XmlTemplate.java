@@ -0,0 +1,87 @@
+package tech.vcinf.fiscalwebsocket.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Template XML compilado uma única vez: o texto fixo é quebrado em fragmentos pré-codificados
+ * e cada marcador {@code {nome}} vira uma posição de valor. A renderização só concatena os
+ * fragmentos e os valores (com escape XML) num buffer já dimensionado, sem reinterpretar
+ * uma string de formato a cada requisição como o {@code String.format}.
+ */
+public final class XmlTemplate {
+
+    private final char[][] fragments;
+    private final String[] names;
+    private final int fixedLength;
+
+    private XmlTemplate(char[][] fragments, String[] names) {
+        this.fragments = fragments;
+        this.names = names;
+        int length = 0;
+        for (char[] fragment : fragments) {
+            length += fragment.length;
+        }
+        this.fixedLength = length;
+    }
+
+    public static XmlTemplate compile(String template) {
+        List<char[]> fragments = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int start = template.indexOf('{', position);
+            if (start < 0) {
+                break;
+            }
+            int end = template.indexOf('}', start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Marcador não fechado no template: " + template.substring(start));
+            }
+            fragments.add(template.substring(position, start).toCharArray());
+            names.add(template.substring(start + 1, end));
+            position = end + 1;
+        }
+        fragments.add(template.substring(position).toCharArray());
+        return new XmlTemplate(fragments.toArray(new char[0][]), names.toArray(new String[0]));
+    }
+
+    /**
+     * Renderiza o template com os valores na mesma ordem dos marcadores. Valores nulos viram texto vazio.
+     */
+    public String render(Object... values) {
+        if (values.length != names.length) {
+            throw new IllegalArgumentException("Template espera " + names.length + " valores " + List.of(names)
+                    + ", recebeu " + values.length);
+        }
+        String[] texts = new String[values.length];
+        int length = fixedLength;
+        for (int i = 0; i < values.length; i++) {
+            texts[i] = values[i] == null ? "" : values[i].toString();
+            length += texts[i].length();
+        }
+
+        // Margem para eventuais entidades de escape
+        StringBuilder buffer = new StringBuilder(length + 16);
+        for (int i = 0; i < texts.length; i++) {
+            buffer.append(fragments[i]);
+            appendEscaped(buffer, texts[i]);
+        }
+        buffer.append(fragments[fragments.length - 1]);
+        return buffer.toString();
+    }
+
+    private static void appendEscaped(StringBuilder buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&' -> buffer.append("&amp;");
+                case '<' -> buffer.append("&lt;");
+                case '>' -> buffer.append("&gt;");
+                case '"' -> buffer.append("&quot;");
+                case '\'' -> buffer.append("&apos;");
+                default -> buffer.append(c);
+            }
+        }
+    }
+}
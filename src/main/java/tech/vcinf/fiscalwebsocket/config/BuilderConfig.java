@@ -4,6 +4,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import tech.vcinf.fiscalwebsocket.builder.ConsSitNFeBuilder;
 import tech.vcinf.fiscalwebsocket.builder.ConsStatServBuilder;
+import tech.vcinf.fiscalwebsocket.builder.ConsultaCadastroBuilder;
+import tech.vcinf.fiscalwebsocket.builder.EventoBuilder;
 import tech.vcinf.fiscalwebsocket.builder.InutNFeBuilder;
 import tech.vcinf.fiscalwebsocket.builder.XmlBuilder;
 
@@ -17,7 +19,9 @@ public class BuilderConfig {
         return Map.of(
             "STATUS", new ConsStatServBuilder(),
             "CONSULTA", new ConsSitNFeBuilder(),
-            "INUTILIZACAO", new InutNFeBuilder()
+            "INUTILIZACAO", new InutNFeBuilder(),
+            "EVENTO", new EventoBuilder(),
+            "CONSULTA_CADASTRO", new ConsultaCadastroBuilder()
         );
     }
 }
@@ -1,16 +1,101 @@
 package tech.vcinf.fiscalwebsocket.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
+import tech.vcinf.fiscalwebsocket.service.TrustStoreManager;
 import tech.vcinf.fiscalwebsocket.util.CacertUtil;
 
+import java.io.File;
+import java.security.KeyStore;
+
+/**
+ * Monta ou atualiza o cacert em segundo plano: a aplicação já atende com o truststore atual
+ * enquanto as raízes ICP-Brasil são baixadas e as cadeias dos hosts SEFAZ são extraídas.
+ * Ao final, se alguma cadeia mudou, o arquivo é regravado e o truststore em uso é trocado de
+ * forma atômica pelo {@link TrustStoreManager}. Com um cacert já existente a atualização só roda
+ * com {@code refresh-on-startup}, e cadeias instaladas só são substituídas por cadeias que validem
+ * contra o truststore atual.
+ */
 @Component
 public class CacertInitializer implements CommandLineRunner {
 
+    private final TrustStoreManager trustStoreManager;
+    private final boolean background;
+    private final boolean refreshOnStartup;
+    private final int parallelism;
+    private final int hostTimeoutMs;
+    private final long deadlineMs;
+
+    public CacertInitializer(TrustStoreManager trustStoreManager,
+                             @Value("${fiscal.truststore.bootstrap.background:true}") boolean background,
+                             @Value("${fiscal.truststore.bootstrap.refresh-on-startup:false}") boolean refreshOnStartup,
+                             @Value("${fiscal.truststore.bootstrap.parallelism:8}") int parallelism,
+                             @Value("${fiscal.truststore.bootstrap.host-timeout-ms:10000}") int hostTimeoutMs,
+                             @Value("${fiscal.truststore.bootstrap.deadline-ms:120000}") long deadlineMs) {
+        this.trustStoreManager = trustStoreManager;
+        this.background = background;
+        this.refreshOnStartup = refreshOnStartup;
+        this.parallelism = parallelism;
+        this.hostTimeoutMs = hostTimeoutMs;
+        this.deadlineMs = deadlineMs;
+    }
+
     @Override
-    public void run(String... args) throws Exception {
+    public void run(String... args) {
+        if (background) {
+            Thread.ofPlatform().daemon().name("cacert-bootstrap").start(this::inicializar);
+        } else {
+            inicializar();
+        }
+    }
+
+    private void inicializar() {
         System.out.println("--- Inicializando configuração de certificados ICP-Brasil ---");
-        CacertUtil.instalarCertificadosICPBrasil();
-        System.out.println("--- Configuração de certificados finalizada ---");
+        long inicio = System.nanoTime();
+        try {
+            File cacertFile = new File(CacertUtil.CACERT_FILE_NAME);
+            boolean novo = !cacertFile.exists();
+            if (!novo && !refreshOnStartup) {
+                System.out.println("Arquivo 'cacert' encontrado: " + cacertFile.getAbsolutePath());
+                return;
+            }
+
+            // 1. Partir do cacert atual (ou vazio) e garantir as raízes ICP-Brasil
+            KeyStore cacert = CacertUtil.carregarCacert(cacertFile);
+            boolean alterado = false;
+            if (!CacertUtil.possuiRaizesIcpBrasil(cacert)) {
+                System.out.println("\n--- FASE 1: Certificados Raiz ICP-Brasil ---");
+                int antes = cacert.size();
+                CacertUtil.downloadIcpBrasilCertificates(cacert);
+                alterado = cacert.size() != antes;
+            }
+
+            // 2. Extrair as cadeias dos hosts SEFAZ em paralelo; só hosts com cadeia nova alteram o cacert
+            System.out.println("\n--- FASE 2: Certificados dos Servidores SEFAZ ---");
+            File iniFile = new File(CacertUtil.SEFAZ_URLS_FILE_NAME);
+            if (iniFile.exists()) {
+                CacertUtil.ResultadoAtualizacao resultado = CacertUtil.atualizarCadeiasSefaz(cacert,
+                        CacertUtil.extractUniqueHosts(iniFile), parallelism, hostTimeoutMs, deadlineMs);
+                alterado |= resultado.houveAlteracao();
+            } else {
+                System.err.println("AVISO: Arquivo sefaz-urls.ini não encontrado. Pulando certificados SEFAZ.");
+            }
+
+            // 3. Gravar o arquivo e trocar o truststore em uso
+            if (novo || alterado) {
+                CacertUtil.salvar(cacert, cacertFile);
+                trustStoreManager.swap(cacert);
+                System.out.println("✓ Arquivo 'cacert' gravado: " + cacertFile.getAbsolutePath() + " (" + cacert.size() + " certificados)");
+            } else {
+                System.out.println("✓ Nenhuma cadeia alterada; truststore mantido");
+            }
+        } catch (Exception e) {
+            System.err.println("ERRO CRÍTICO ao inicializar cacert: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            System.out.println("--- Configuração de certificados finalizada em "
+                    + (System.nanoTime() - inicio) / 1_000_000 + " ms ---");
+        }
     }
 }
@@ -0,0 +1,86 @@
+package tech.vcinf.fiscalwebsocket.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+import tech.vcinf.fiscalwebsocket.model.PayloadPointer;
+import tech.vcinf.fiscalwebsocket.model.TransactionLog;
+import tech.vcinf.fiscalwebsocket.repository.TransactionLogRepository;
+import tech.vcinf.fiscalwebsocket.service.PayloadStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compactação dos segmentos do {@link PayloadStore}: segmentos fechados em que a fração de bytes
+ * sem referência no banco (registros removidos ou órfãos de uma queda) passa do limite têm os
+ * registros vivos copiados para o segmento ativo, os ponteiros atualizados e o arquivo removido.
+ *
+ * Roda na inicialização quando {@code fiscal.payload-store.compact-on-startup=true}.
+ */
+@Component
+public class PayloadStoreCompaction implements CommandLineRunner {
+
+    private final TransactionLogRepository transactionLogRepository;
+    private final PayloadStore payloadStore;
+    private final boolean enabled;
+    private final double minGarbageRatio;
+
+    public PayloadStoreCompaction(TransactionLogRepository transactionLogRepository,
+                                  PayloadStore payloadStore,
+                                  @Value("${fiscal.payload-store.compact-on-startup:false}") boolean enabled,
+                                  @Value("${fiscal.payload-store.compact-min-garbage-ratio:0.5}") double minGarbageRatio) {
+        this.transactionLogRepository = transactionLogRepository;
+        this.payloadStore = payloadStore;
+        this.enabled = enabled;
+        this.minGarbageRatio = minGarbageRatio;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (!enabled || !payloadStore.isEnabled()) {
+            return;
+        }
+        for (Map.Entry<String, Long> entry : payloadStore.sealedSegments().entrySet()) {
+            compact(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void compact(String segment, long segmentBytes) throws Exception {
+        List<TransactionLog> logs = transactionLogRepository.findBySegment(segment);
+        List<PayloadPointer> live = new ArrayList<>();
+        long liveBytes = 0;
+        for (TransactionLog log : logs) {
+            for (PayloadPointer pointer : new PayloadPointer[]{log.getXmlEnviadoRef(), log.getXmlRespostaRef()}) {
+                if (pointer != null && segment.equals(pointer.segment())) {
+                    live.add(pointer);
+                    liveBytes += PayloadStore.recordLength(pointer);
+                }
+            }
+        }
+        double garbageRatio = segmentBytes == 0 ? 1.0 : 1.0 - (double) liveBytes / segmentBytes;
+        if (garbageRatio < minGarbageRatio) {
+            return;
+        }
+
+        // 1. Copiar os registros vivos (já sincronizados em disco ao final)
+        Map<PayloadPointer, PayloadPointer> moved = payloadStore.compact(segment, live);
+
+        // 2. Atualizar os ponteiros no banco
+        for (TransactionLog log : logs) {
+            if (log.getXmlEnviadoRef() != null && moved.containsKey(log.getXmlEnviadoRef())) {
+                log.setXmlEnviadoRef(moved.get(log.getXmlEnviadoRef()));
+            }
+            if (log.getXmlRespostaRef() != null && moved.containsKey(log.getXmlRespostaRef())) {
+                log.setXmlRespostaRef(moved.get(log.getXmlRespostaRef()));
+            }
+        }
+        transactionLogRepository.saveAll(logs);
+
+        // 3. Só então remover o segmento antigo; uma queda antes disso deixa apenas cópias órfãs
+        payloadStore.deleteSegment(segment);
+        System.out.println("Segmento " + segment + " compactado: " + live.size() + " registros movidos, "
+                + (segmentBytes - liveBytes) + " bytes liberados");
+    }
+}
@@ -0,0 +1,67 @@
+package tech.vcinf.fiscalwebsocket.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import tech.vcinf.fiscalwebsocket.model.TransactionLog;
+import tech.vcinf.fiscalwebsocket.repository.TransactionLogRepository;
+import tech.vcinf.fiscalwebsocket.service.PayloadStore;
+
+import java.util.List;
+
+/**
+ * Migra os logs de transação gravados sem compressão para as colunas compactadas, em lotes.
+ * Com o {@link PayloadStore} habilitado, todo XML ainda gravado no registro vai para os segmentos.
+ * Cada lote é gravado na sua própria transação, de modo que a migração pode ser interrompida
+ * e retomada; enquanto isso a leitura usa as colunas antigas como fallback.
+ */
+@Component
+public class TransactionLogCompressionMigration implements CommandLineRunner {
+
+    private final TransactionLogRepository transactionLogRepository;
+    private final PayloadStore payloadStore;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public TransactionLogCompressionMigration(TransactionLogRepository transactionLogRepository,
+                                              PayloadStore payloadStore,
+                                              @Value("${fiscal.transaction-log.compress-legacy-on-startup:true}") boolean enabled,
+                                              @Value("${fiscal.transaction-log.batch-size:50}") int batchSize) {
+        this.transactionLogRepository = transactionLogRepository;
+        this.payloadStore = payloadStore;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+        long lastId = 0L;
+        long migrated = 0L;
+        List<TransactionLog> batch;
+        while (!(batch = findNextBatch(lastId)).isEmpty()) {
+            if (payloadStore.isEnabled()) {
+                batch.forEach(log -> log.externalizeXml(payloadStore::append));
+                payloadStore.sync();
+            } else {
+                batch.forEach(TransactionLog::compressLegacyXml);
+            }
+            transactionLogRepository.saveAll(batch);
+            migrated += batch.size();
+            lastId = batch.get(batch.size() - 1).getId();
+        }
+        if (migrated > 0) {
+            System.out.println("Logs de transação migrados para XML compactado: " + migrated);
+        }
+    }
+
+    private List<TransactionLog> findNextBatch(long lastId) {
+        PageRequest page = PageRequest.of(0, batchSize);
+        return payloadStore.isEnabled()
+                ? transactionLogRepository.findInlineXmlAfter(lastId, page)
+                : transactionLogRepository.findLegacyXmlAfter(lastId, page);
+    }
+}
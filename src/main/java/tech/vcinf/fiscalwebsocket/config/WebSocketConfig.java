@@ -1,7 +1,10 @@
 package tech.vcinf.fiscalwebsocket.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
@@ -11,10 +14,36 @@ import org.springframework.web.socket.config.annotation.WebSocketTransportRegist
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // "platform" (pool de threads fixo) ou "virtual" (uma virtual thread por mensagem recebida)
+    @Value("${fiscal.execution-mode:platform}")
+    private String executionMode;
+
+    @Value("${fiscal.websocket.inbound.core-pool-size:16}")
+    private int inboundCorePoolSize;
+
+    @Value("${fiscal.websocket.inbound.max-pool-size:64}")
+    private int inboundMaxPoolSize;
+
+    @Value("${fiscal.websocket.inbound.queue-capacity:1000}")
+    private int inboundQueueCapacity;
+
+    @Value("${fiscal.websocket.outbound.core-pool-size:8}")
+    private int outboundCorePoolSize;
+
+    @Value("${fiscal.websocket.outbound.max-pool-size:32}")
+    private int outboundMaxPoolSize;
+
+    @Value("${fiscal.websocket.outbound.queue-capacity:1000}")
+    private int outboundQueueCapacity;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        // /queue: respostas destinadas a uma única sessão (/user/queue/...); /topic: difusão
+        config.enableSimpleBroker("/topic", "/queue");
         config.setApplicationDestinationPrefixes("/app");
+        config.setUserDestinationPrefix("/user");
+        // Mensagens para a mesma sessão saem na ordem de publicação (páginas, resultados de lote)
+        config.setPreservePublishOrder(true);
     }
 
     @Override
@@ -29,4 +58,32 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registration.setSendBufferSizeLimit(1024 * 1024); // 1MB
     }
 
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("clientInboundChannel-");
+        if ("virtual".equalsIgnoreCase(executionMode)) {
+            // Sem fila: cada mensagem recebe sua própria virtual thread, de modo que uma UF lenta
+            // não bloqueia as mensagens dos demais emitentes
+            executor.setThreadFactory(Thread.ofVirtual().name("clientInboundChannel-vt-", 0).factory());
+            executor.setCorePoolSize(0);
+            executor.setMaxPoolSize(Integer.MAX_VALUE);
+            executor.setQueueCapacity(0);
+            executor.setKeepAliveSeconds(1);
+        } else {
+            executor.setCorePoolSize(inboundCorePoolSize);
+            executor.setMaxPoolSize(inboundMaxPoolSize);
+            executor.setQueueCapacity(inboundQueueCapacity);
+        }
+        registration.taskExecutor(executor);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(outboundQueueCapacity);
+    }
+
 }
@@ -1,33 +1,41 @@
 package tech.vcinf.fiscalwebsocket.controller;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.stereotype.Controller;
-import tech.vcinf.fiscalwebsocket.builder.XmlBuilder;
 import tech.vcinf.fiscalwebsocket.dto.*;
 import tech.vcinf.fiscalwebsocket.model.Emitente;
-import tech.vcinf.fiscalwebsocket.model.TransactionLog;
 import tech.vcinf.fiscalwebsocket.repository.EmitenteRepository;
-import tech.vcinf.fiscalwebsocket.repository.TransactionLogRepository;
-import tech.vcinf.fiscalwebsocket.service.OperationDiscoveryService;
+import tech.vcinf.fiscalwebsocket.service.CertificateManager;
+import tech.vcinf.fiscalwebsocket.service.EmitenteCache;
+import tech.vcinf.fiscalwebsocket.service.OperationCatalogCache;
+import tech.vcinf.fiscalwebsocket.service.ResponseCache;
 import tech.vcinf.fiscalwebsocket.service.SefazService;
-import tech.vcinf.fiscalwebsocket.service.UfWebService;
-import tech.vcinf.fiscalwebsocket.service.XmlSignatureService;
+import tech.vcinf.fiscalwebsocket.service.SefazStatusMonitor;
+import tech.vcinf.fiscalwebsocket.service.TransactionLogQueryService;
+import tech.vcinf.fiscalwebsocket.service.TransactionLogWriter;
+import tech.vcinf.fiscalwebsocket.service.TransmissaoBatchService;
+import tech.vcinf.fiscalwebsocket.service.TransmissaoPipeline;
+import tech.vcinf.fiscalwebsocket.service.TransmissaoService;
+import tech.vcinf.fiscalwebsocket.service.TrustStoreManager;
 import tech.vcinf.fiscalwebsocket.util.CertificateUtils;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.nio.file.Files;
 import java.security.cert.X509Certificate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -36,38 +44,79 @@ import java.util.stream.Collectors;
 public class FiscalController {
 
     private final EmitenteRepository emitenteRepository;
-    private final TransactionLogRepository transactionLogRepository;
-    private final UfWebService ufWebService;
-    private final XmlSignatureService xmlSignatureService;
+    private final EmitenteCache emitenteCache;
+    private final CertificateManager certificateManager;
+    private final TrustStoreManager trustStoreManager;
     private final SefazService sefazService;
-    private final OperationDiscoveryService operationDiscoveryService;
-    private final Map<String, XmlBuilder> xmlBuilders;
+    private final SefazStatusMonitor sefazStatusMonitor;
+    private final ResponseCache responseCache;
+    private final OperationCatalogCache operationCatalogCache;
+    private final TransmissaoService transmissaoService;
+    private final TransmissaoPipeline transmissaoPipeline;
+    private final TransmissaoBatchService transmissaoBatchService;
+    private final TransactionLogWriter transactionLogWriter;
+    private final TransactionLogQueryService transactionLogQueryService;
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final boolean monitorBroadcast;
+    private final boolean pipelineEnabled;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final Set<String> SERVICES_WITHOUT_SIGNATURE = Set.of("STATUS", "CONSULTA", "CONSULTA_CADASTRO", "RET_AUTORIZACAO");
-
-    private static final Set<String> SERVICES_TO_LOG = Set.of("AUTORIZACAO", "INUTILIZACAO", "EVENTO");
-
     public FiscalController(EmitenteRepository emitenteRepository,
-                            TransactionLogRepository transactionLogRepository,
-                            UfWebService ufWebService,
-                            XmlSignatureService xmlSignatureService,
+                            EmitenteCache emitenteCache,
+                            CertificateManager certificateManager,
+                            TrustStoreManager trustStoreManager,
                             SefazService sefazService,
-                            OperationDiscoveryService operationDiscoveryService,
-                            Map<String, XmlBuilder> xmlBuilders) {
+                            SefazStatusMonitor sefazStatusMonitor,
+                            ResponseCache responseCache,
+                            OperationCatalogCache operationCatalogCache,
+                            TransmissaoService transmissaoService,
+                            TransmissaoPipeline transmissaoPipeline,
+                            TransmissaoBatchService transmissaoBatchService,
+                            TransactionLogWriter transactionLogWriter,
+                            TransactionLogQueryService transactionLogQueryService,
+                            SimpMessageSendingOperations messagingTemplate,
+                            @Value("${fiscal.websocket.monitor-broadcast:false}") boolean monitorBroadcast,
+                            @Value("${fiscal.pipeline.enabled:false}") boolean pipelineEnabled) {
         this.emitenteRepository = emitenteRepository;
-        this.transactionLogRepository = transactionLogRepository;
-        this.ufWebService = ufWebService;
-        this.xmlSignatureService = xmlSignatureService;
+        this.emitenteCache = emitenteCache;
+        this.certificateManager = certificateManager;
+        this.trustStoreManager = trustStoreManager;
         this.sefazService = sefazService;
-        this.operationDiscoveryService = operationDiscoveryService;
-        this.xmlBuilders = xmlBuilders;
+        this.sefazStatusMonitor = sefazStatusMonitor;
+        this.responseCache = responseCache;
+        this.operationCatalogCache = operationCatalogCache;
+        this.transmissaoService = transmissaoService;
+        this.transmissaoPipeline = transmissaoPipeline;
+        this.transmissaoBatchService = transmissaoBatchService;
+        this.transactionLogWriter = transactionLogWriter;
+        this.transactionLogQueryService = transactionLogQueryService;
+        this.messagingTemplate = messagingTemplate;
+        this.monitorBroadcast = monitorBroadcast;
+        this.pipelineEnabled = pipelineEnabled;
     }
 
+    /**
+     * A resposta vai apenas para a sessão que enviou a requisição (/user/queue/responses), com o
+     * correlationId informado pelo cliente. Consoles de monitoramento podem receber uma cópia em
+     * /topic/responses quando fiscal.websocket.monitor-broadcast=true.
+     */
     @MessageMapping("/transmitir")
-    @SendTo("/topic/responses")
-    public FiscalResponse transmitir(FiscalRequest request) {
-        File tempFile = null;
+    @SendToUser(destinations = "/queue/responses", broadcast = false)
+    public CompletableFuture<FiscalResponse> transmitir(FiscalRequest request, SimpMessageHeaderAccessor headerAccessor) {
+        return processar(request, headerAccessor.getSessionId()).thenApply(response -> {
+            if (response == null) {
+                // Resposta já enviada à sessão pelo próprio processamento (ack do lote)
+                return null;
+            }
+            response.setCorrelationId(request.getCorrelationId());
+            if (monitorBroadcast) {
+                messagingTemplate.convertAndSend("/topic/responses", response);
+            }
+            return response;
+        });
+    }
+
+    private CompletableFuture<FiscalResponse> processar(FiscalRequest request, String sessionId) {
         try {
             String action = request.getAction();
             Object data = request.getData();
@@ -78,8 +127,9 @@ public class FiscalController {
                 String modelo = (String) payload.get("modelo");
                 String uf = (String) payload.get("uf");
                 String ambiente = (String) payload.get("ambiente");
-                OperationCatalog catalog = operationDiscoveryService.getAvailableOperations(modelo, uf, ambiente);
-                return new FiscalResponse("operations_catalog", catalog);
+                // JSON do catálogo já serializado para a combinação
+                Object catalog = operationCatalogCache.get(modelo, uf, ambiente);
+                return CompletableFuture.completedFuture(new FiscalResponse("operations_catalog", catalog));
             }
 
             if ("register".equals(action)) {
@@ -108,80 +158,124 @@ public class FiscalController {
                 emitente.setUf((String) payload.get("uf"));
                 emitente.setTipo((String) payload.get("tipo"));
                 emitenteRepository.save(emitente);
-                return new FiscalResponse(200, null, "Emitente registered successfully", "register");
+                // Descarta o emitente e todo o material derivado do certificado anterior
+                emitenteCache.invalidate(cnpj);
+                return CompletableFuture.completedFuture(new FiscalResponse(200, null, "Emitente registered successfully", "register"));
             }
 
             if ("list_emitentes".equals(action)) {
                 List<EmitenteInfo> emitentes = emitenteRepository.findAll().stream()
                         .map(e -> new EmitenteInfo(e.getCnpj(), e.getRazaoSocial(), e.getUf(), e.getTipo()))
                         .collect(Collectors.toList());
-                return new FiscalResponse("list_emitentes", emitentes);
+                return CompletableFuture.completedFuture(new FiscalResponse("list_emitentes", emitentes));
             }
 
-            // Generic transmission logic
-            String cnpj = request.getCnpj();
-            Emitente emitente = emitenteRepository.findById(cnpj)
-                    .orElseThrow(() -> new RuntimeException("Emitente not found: " + cnpj));
-
-            @SuppressWarnings("unchecked")
-            Map<String, Object> payload = (Map<String, Object>) data;
-            String modelo = (String) payload.get("modelo");
-            String ambiente = (String) payload.get("ambiente");
-            String servico = request.getServico(); // This is the simple service key like "STATUS", "CONSULTA"
-
-            String xml;
-            XmlBuilder builder = xmlBuilders.get(servico);
-            if (builder != null) {
-                xml = builder.build(payload, cnpj, emitente.getUf());
-            } else {
-                // For services like AUTORIZACAO, XML comes from client
-                xml = request.getXml(); 
+            if ("sefaz_status".equals(action)) {
+                // Situação de todos os web services monitorados; mudanças chegam em /topic/sefaz-status
+                return CompletableFuture.completedFuture(new FiscalResponse("sefaz_status", sefazStatusMonitor.getAll()));
             }
 
-            if (xml == null || xml.isEmpty()) {
-                 throw new IllegalArgumentException("XML de entrada não pode ser vazio para esta operação.");
+            if ("stats".equals(action)) {
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("sefazConnectionPool", sefazService.getPoolStats());
+                stats.put("tls", sefazService.getTlsStats());
+                stats.put("pipeline", transmissaoPipeline.getStats());
+                stats.put("transactionLog", transactionLogWriter.getStats());
+                stats.put("emitenteCache", emitenteCache.getStats());
+                stats.put("keyMaterial", certificateManager.getStats());
+                stats.put("trustStore", trustStoreManager.getStats());
+                stats.put("operationCatalog", operationCatalogCache.getStats());
+                stats.put("sefazStatusMonitor", sefazStatusMonitor.getStats());
+                stats.put("responseCache", responseCache.getStats());
+                stats.put("batch", transmissaoBatchService.getStats());
+                return CompletableFuture.completedFuture(new FiscalResponse("stats", stats));
             }
 
-            String url = ufWebService.getUrl(modelo, servico, emitente.getUf(), ambiente);
-            System.out.println("URL Serviço Sefaz: " + url);
-
-            String xmlToSend = xml;
-            if (!SERVICES_WITHOUT_SIGNATURE.contains(servico)) {
-                tempFile = File.createTempFile("fiscal_xml_", ".xml");
-                try (FileWriter writer = new FileWriter(tempFile)) {
-                    writer.write(xml);
+            if ("batch".equals(action)) {
+                // data: lista de FiscalRequest; cada resultado é enviado à sessão assim que fica pronto
+                List<FiscalRequest> requests = objectMapper.convertValue(data, new TypeReference<List<FiscalRequest>>() {});
+                if (requests == null) {
+                    throw new IllegalArgumentException("O lote deve conter uma lista de requisições em 'data'.");
                 }
-                xmlSignatureService.sign(tempFile.getAbsolutePath(), emitente.getCaminhoCertificado(), emitente.getSenha());
-                xmlToSend = new String(Files.readAllBytes(tempFile.toPath()));
+                TransmissaoBatchService.Lote lote;
+                try {
+                    lote = transmissaoBatchService.submit(requests, request.getCorrelationId(),
+                            response -> enviarParaSessao(sessionId, response));
+                } catch (TransmissaoPipeline.FilaCheiaException e) {
+                    return CompletableFuture.completedFuture(new FiscalResponse(503, Map.of("retryAfterMs", e.getRetryAfterMs()), e.getMessage(), action));
+                }
+                // O ack (com o batchId) é publicado antes de o lote começar, para chegar antes de qualquer resultado
+                FiscalResponse ack = new FiscalResponse(202, Map.of("batchId", lote.getBatchId(), "total", requests.size()), "Accepted", action);
+                ack.setJobId(lote.getBatchId());
+                ack.setCorrelationId(request.getCorrelationId());
+                enviarParaSessao(sessionId, ack);
+                lote.iniciar();
+                return CompletableFuture.completedFuture(null);
             }
 
-            String responseBody = sefazService.send(url, xmlToSend, emitente, servico);
+            if ("query_transactions".equals(action)) {
+                // Cada página é enviada à sessão assim que lida; a resposta final traz o cursor para continuar
+                @SuppressWarnings("unchecked")
+                Map<String, Object> payload = data != null ? (Map<String, Object>) data : Map.of();
+                TransactionLogQueryService.Filtro filtro = new TransactionLogQueryService.Filtro(
+                        (String) payload.get("cnpj"),
+                        (String) payload.get("servico"),
+                        (String) payload.get("chaveAcesso"),
+                        (String) payload.get("cStat"),
+                        payload.get("statusHttp") != null ? ((Number) payload.get("statusHttp")).intValue() : null,
+                        payload.get("dataInicio") != null ? LocalDateTime.parse((String) payload.get("dataInicio")) : null,
+                        payload.get("dataFim") != null ? LocalDateTime.parse((String) payload.get("dataFim")) : null,
+                        (String) payload.get("cursor"),
+                        payload.get("pageSize") != null ? ((Number) payload.get("pageSize")).intValue() : 100,
+                        Boolean.TRUE.equals(payload.get("includeXml")));
+                int maxPages = payload.get("maxPages") != null ? ((Number) payload.get("maxPages")).intValue() : 1;
+                String nextCursor = transactionLogQueryService.stream(filtro, maxPages, page -> {
+                    FiscalResponse response = new FiscalResponse("transaction_page", page);
+                    response.setCorrelationId(request.getCorrelationId());
+                    enviarParaSessao(sessionId, response);
+                });
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("nextCursor", nextCursor);
+                result.put("hasMore", nextCursor != null);
+                return CompletableFuture.completedFuture(new FiscalResponse("query_transactions", result));
+            }
 
-            if (SERVICES_TO_LOG.contains(servico)) {
-                try {
-                    TransactionLog log = new TransactionLog();
-                    log.setCnpj(cnpj);
-                    log.setXmlEnviado(xml);
-                    log.setXmlResposta(responseBody);
-                    log.setStatusHttp(200);
-                    transactionLogRepository.save(log);
-                    System.out.println("Transação registrada no banco: " + servico);
-                } catch (Exception e) {
-                    System.err.println("ERRO ao salvar log de transação: " + e.getMessage());
-                }
-            } else {
-                System.out.println("Serviço consultivo - sem log persistente: " + servico);
+            // Generic transmission logic
+            TransmissaoService.Transmissao transmissao = transmissaoService.preparar(request);
+            if (!pipelineEnabled) {
+                return transmissaoService.executar(transmissao);
             }
 
-            return new FiscalResponse(200, responseBody, "Success", action);
+            // Modo pipeline: enfileira na fila da UF e responde já com o id do job; o resultado
+            // final é enviado depois à mesma sessão
+            try {
+                String jobId = transmissaoPipeline.submit(transmissao, response -> {
+                    response.setCorrelationId(request.getCorrelationId());
+                    enviarParaSessao(sessionId, response);
+                });
+                FiscalResponse ack = new FiscalResponse(202, Map.of("jobId", jobId), "Accepted", action);
+                ack.setJobId(jobId);
+                return CompletableFuture.completedFuture(ack);
+            } catch (TransmissaoPipeline.FilaCheiaException e) {
+                return CompletableFuture.completedFuture(new FiscalResponse(503, Map.of("retryAfterMs", e.getRetryAfterMs()), e.getMessage(), action));
+            }
 
         } catch (Exception e) {
-            e.printStackTrace();
-            return new FiscalResponse(500, null, e.getClass().getSimpleName() + ": " + e.getMessage(), request.getAction());
-        } finally {
-            if (tempFile != null) {
-                tempFile.delete();
-            }
+            return CompletableFuture.completedFuture(errorResponse(request, e));
         }
     }
+
+    private void enviarParaSessao(String sessionId, FiscalResponse response) {
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headerAccessor.setSessionId(sessionId);
+        headerAccessor.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(sessionId, "/queue/responses", response, headerAccessor.getMessageHeaders());
+        if (monitorBroadcast) {
+            messagingTemplate.convertAndSend("/topic/responses", response);
+        }
+    }
+
+    private FiscalResponse errorResponse(FiscalRequest request, Throwable e) {
+        return transmissaoService.errorResponse(request.getAction(), e);
+    }
 }
@@ -6,6 +6,7 @@ public class FiscalRequest {
     private String servico;
     private String action; // Para ações como "register"
     private Object data; // Para dados de registro do emitente
+    private String correlationId; // Identificador do cliente, devolvido na resposta
 
     // Getters e Setters
 
@@ -48,4 +49,12 @@ public class FiscalRequest {
     public void setData(Object data) {
         this.data = data;
     }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(String correlationId) {
+        this.correlationId = correlationId;
+    }
 }
@@ -5,6 +5,9 @@ public class FiscalResponse {
     private Object body;
     private String message;
     private String originalAction;
+    private String correlationId;
+    private String jobId;
+    private Long cacheAgeMs; // Idade da resposta quando servida de cache; nulo se veio da SEFAZ agora
 
     public FiscalResponse(int status, Object body, String message, String originalAction) {
         this.status = status;
@@ -54,4 +57,28 @@ public class FiscalResponse {
     public void setOriginalAction(String originalAction) {
         this.originalAction = originalAction;
     }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(String correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public Long getCacheAgeMs() {
+        return cacheAgeMs;
+    }
+
+    public void setCacheAgeMs(Long cacheAgeMs) {
+        this.cacheAgeMs = cacheAgeMs;
+    }
 }
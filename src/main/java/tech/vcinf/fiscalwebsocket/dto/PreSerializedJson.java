@@ -0,0 +1,47 @@
+package tech.vcinf.fiscalwebsocket.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Valor JSON já serializado. Ao ser colocado numa resposta, o Jackson copia os bytes prontos
+ * no lugar do valor em vez de percorrer um grafo de objetos.
+ */
+@JsonSerialize(using = PreSerializedJson.Serializer.class)
+public final class PreSerializedJson {
+
+    private final SerializedString json;
+
+    public PreSerializedJson(String json) {
+        this.json = new SerializedString(json);
+        // Codifica os bytes UTF-8 uma única vez, fora do caminho das requisições
+        this.json.asUnquotedUTF8();
+    }
+
+    public int length() {
+        return json.charLength();
+    }
+
+    @Override
+    public String toString() {
+        return json.getValue();
+    }
+
+    public static class Serializer extends StdSerializer<PreSerializedJson> {
+        private static final long serialVersionUID = 1L;
+
+        public Serializer() {
+            super(PreSerializedJson.class);
+        }
+
+        @Override
+        public void serialize(PreSerializedJson value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeRawValue(value.json);
+        }
+    }
+}
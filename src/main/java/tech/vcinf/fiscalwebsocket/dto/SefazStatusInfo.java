@@ -0,0 +1,64 @@
+package tech.vcinf.fiscalwebsocket.dto;
+
+import java.time.LocalDateTime;
+
+public class SefazStatusInfo {
+    private String modelo;
+    private String uf;
+    private String ambiente;
+    private boolean disponivel;
+    private String cStat;
+    private String xMotivo;
+    private Integer tMed;
+    private long latenciaMs;
+    private LocalDateTime verificadoEm;
+
+    public SefazStatusInfo(String modelo, String uf, String ambiente, boolean disponivel, String cStat, String xMotivo,
+                           Integer tMed, long latenciaMs, LocalDateTime verificadoEm) {
+        this.modelo = modelo;
+        this.uf = uf;
+        this.ambiente = ambiente;
+        this.disponivel = disponivel;
+        this.cStat = cStat;
+        this.xMotivo = xMotivo;
+        this.tMed = tMed;
+        this.latenciaMs = latenciaMs;
+        this.verificadoEm = verificadoEm;
+    }
+
+    public String getModelo() {
+        return modelo;
+    }
+
+    public String getUf() {
+        return uf;
+    }
+
+    public String getAmbiente() {
+        return ambiente;
+    }
+
+    public boolean isDisponivel() {
+        return disponivel;
+    }
+
+    public String getcStat() {
+        return cStat;
+    }
+
+    public String getxMotivo() {
+        return xMotivo;
+    }
+
+    public Integer gettMed() {
+        return tMed;
+    }
+
+    public long getLatenciaMs() {
+        return latenciaMs;
+    }
+
+    public LocalDateTime getVerificadoEm() {
+        return verificadoEm;
+    }
+}
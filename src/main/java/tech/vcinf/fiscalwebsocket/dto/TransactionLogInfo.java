@@ -0,0 +1,97 @@
+package tech.vcinf.fiscalwebsocket.dto;
+
+import java.time.LocalDateTime;
+
+public class TransactionLogInfo {
+    private Long id;
+    private String cnpj;
+    private String servico;
+    private String chaveAcesso;
+    private String cStat;
+    private int statusHttp;
+    private LocalDateTime data;
+    private String xmlEnviado;
+    private String xmlResposta;
+
+    public TransactionLogInfo(Long id, String cnpj, String servico, String chaveAcesso, String cStat, int statusHttp, LocalDateTime data) {
+        this.id = id;
+        this.cnpj = cnpj;
+        this.servico = servico;
+        this.chaveAcesso = chaveAcesso;
+        this.cStat = cStat;
+        this.statusHttp = statusHttp;
+        this.data = data;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCnpj() {
+        return cnpj;
+    }
+
+    public void setCnpj(String cnpj) {
+        this.cnpj = cnpj;
+    }
+
+    public String getServico() {
+        return servico;
+    }
+
+    public void setServico(String servico) {
+        this.servico = servico;
+    }
+
+    public String getChaveAcesso() {
+        return chaveAcesso;
+    }
+
+    public void setChaveAcesso(String chaveAcesso) {
+        this.chaveAcesso = chaveAcesso;
+    }
+
+    public String getcStat() {
+        return cStat;
+    }
+
+    public void setcStat(String cStat) {
+        this.cStat = cStat;
+    }
+
+    public int getStatusHttp() {
+        return statusHttp;
+    }
+
+    public void setStatusHttp(int statusHttp) {
+        this.statusHttp = statusHttp;
+    }
+
+    public LocalDateTime getData() {
+        return data;
+    }
+
+    public void setData(LocalDateTime data) {
+        this.data = data;
+    }
+
+    public String getXmlEnviado() {
+        return xmlEnviado;
+    }
+
+    public void setXmlEnviado(String xmlEnviado) {
+        this.xmlEnviado = xmlEnviado;
+    }
+
+    public String getXmlResposta() {
+        return xmlResposta;
+    }
+
+    public void setXmlResposta(String xmlResposta) {
+        this.xmlResposta = xmlResposta;
+    }
+}
@@ -0,0 +1,22 @@
+package tech.vcinf.fiscalwebsocket.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import tech.vcinf.fiscalwebsocket.util.XmlCompressor;
+
+/**
+ * Grava o XML compactado (ver {@link XmlCompressor}) e descompacta de forma transparente na leitura.
+ */
+@Converter
+public class CompressedXmlConverter implements AttributeConverter<String, byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(String xml) {
+        return XmlCompressor.compress(xml);
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] data) {
+        return XmlCompressor.decompress(data);
+    }
+}
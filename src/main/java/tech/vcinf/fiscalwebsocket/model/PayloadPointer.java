@@ -0,0 +1,11 @@
+package tech.vcinf.fiscalwebsocket.model;
+
+import jakarta.persistence.Embeddable;
+
+/**
+ * Localização de um XML no {@code PayloadStore}: segmento, posição do registro, tamanho do
+ * conteúdo gravado e CRC32C desse conteúdo.
+ */
+@Embeddable
+public record PayloadPointer(String segment, long offset, int length, long checksum) {
+}
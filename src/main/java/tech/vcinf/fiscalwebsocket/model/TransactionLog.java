@@ -3,21 +3,71 @@ package tech.vcinf.fiscalwebsocket.model;
 import jakarta.persistence.*;
 
 import java.time.LocalDateTime;
+import java.util.function.Function;
 
 @Entity
+// Índices das consultas de auditoria: todos terminam em (data, id), a ordem da paginação por chave
+@Table(indexes = {
+        @Index(name = "idx_transaction_log_cnpj_data", columnList = "cnpj, data, id"),
+        @Index(name = "idx_transaction_log_cnpj_servico_data", columnList = "cnpj, servico, data, id"),
+        @Index(name = "idx_transaction_log_chave_acesso", columnList = "chave_acesso"),
+        @Index(name = "idx_transaction_log_data", columnList = "data, id")
+})
 public class TransactionLog {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Sequence com alocação em blocos (pooled): os ids saem sem ida ao banco e os inserts podem ir em batch
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transaction_log_seq")
+    @SequenceGenerator(name = "transaction_log_seq", sequenceName = "transaction_log_seq", allocationSize = 50)
     private Long id;
     private String cnpj;
 
-    @Column(columnDefinition = "TEXT")
+    // Extraídos na gravação para permitir filtros indexados sem ler os XMLs
+    @Column(length = 32)
+    private String servico;
+
+    @Column(name = "chave_acesso", length = 44)
+    private String chaveAcesso;
+
+    @Column(length = 3)
+    private String cStat;
+
+    // Localização dos XMLs no PayloadStore (segmento, posição, tamanho, checksum)
+    @Embedded
+    @AttributeOverrides({
+            @AttributeOverride(name = "segment", column = @Column(name = "xml_enviado_segment")),
+            @AttributeOverride(name = "offset", column = @Column(name = "xml_enviado_offset")),
+            @AttributeOverride(name = "length", column = @Column(name = "xml_enviado_length")),
+            @AttributeOverride(name = "checksum", column = @Column(name = "xml_enviado_checksum"))
+    })
+    private PayloadPointer xmlEnviadoRef;
+
+    @Embedded
+    @AttributeOverrides({
+            @AttributeOverride(name = "segment", column = @Column(name = "xml_resposta_segment")),
+            @AttributeOverride(name = "offset", column = @Column(name = "xml_resposta_offset")),
+            @AttributeOverride(name = "length", column = @Column(name = "xml_resposta_length")),
+            @AttributeOverride(name = "checksum", column = @Column(name = "xml_resposta_checksum"))
+    })
+    private PayloadPointer xmlRespostaRef;
+
+    // XMLs gravados no próprio registro (PayloadStore desabilitado ou registros anteriores a ele),
+    // compactados com deflate e descompactados de forma transparente na leitura
+    @Convert(converter = CompressedXmlConverter.class)
+    @Column(name = "xml_enviado_deflate", columnDefinition = "BLOB")
     private String xmlEnviado;
 
-    @Column(columnDefinition = "TEXT")
+    @Convert(converter = CompressedXmlConverter.class)
+    @Column(name = "xml_resposta_deflate", columnDefinition = "BLOB")
     private String xmlResposta;
 
+    // Colunas sem compressão das versões anteriores: lidas como fallback até a migração
+    @Column(name = "xml_enviado", columnDefinition = "TEXT")
+    private String xmlEnviadoLegado;
+
+    @Column(name = "xml_resposta", columnDefinition = "TEXT")
+    private String xmlRespostaLegado;
+
     private int statusHttp;
     private LocalDateTime data = LocalDateTime.now();
 
@@ -39,20 +89,109 @@ public class TransactionLog {
         this.cnpj = cnpj;
     }
 
+    public String getServico() {
+        return servico;
+    }
+
+    public void setServico(String servico) {
+        this.servico = servico;
+    }
+
+    public String getChaveAcesso() {
+        return chaveAcesso;
+    }
+
+    public void setChaveAcesso(String chaveAcesso) {
+        this.chaveAcesso = chaveAcesso;
+    }
+
+    public String getcStat() {
+        return cStat;
+    }
+
+    public void setcStat(String cStat) {
+        this.cStat = cStat;
+    }
+
     public String getXmlEnviado() {
-        return xmlEnviado;
+        return xmlEnviado != null ? xmlEnviado : xmlEnviadoLegado;
     }
 
     public void setXmlEnviado(String xmlEnviado) {
         this.xmlEnviado = xmlEnviado;
+        this.xmlEnviadoLegado = null;
     }
 
     public String getXmlResposta() {
-        return xmlResposta;
+        return xmlResposta != null ? xmlResposta : xmlRespostaLegado;
     }
 
     public void setXmlResposta(String xmlResposta) {
         this.xmlResposta = xmlResposta;
+        this.xmlRespostaLegado = null;
+    }
+
+    public PayloadPointer getXmlEnviadoRef() {
+        return xmlEnviadoRef;
+    }
+
+    public void setXmlEnviadoRef(PayloadPointer xmlEnviadoRef) {
+        this.xmlEnviadoRef = xmlEnviadoRef;
+    }
+
+    public PayloadPointer getXmlRespostaRef() {
+        return xmlRespostaRef;
+    }
+
+    public void setXmlRespostaRef(PayloadPointer xmlRespostaRef) {
+        this.xmlRespostaRef = xmlRespostaRef;
+    }
+
+    /**
+     * Move os XMLs gravados no registro para o armazenamento externo, guardando só os ponteiros.
+     */
+    public void externalizeXml(Function<String, PayloadPointer> store) {
+        String enviado = getXmlEnviado();
+        if (enviado != null) {
+            xmlEnviadoRef = store.apply(enviado);
+            xmlEnviado = null;
+            xmlEnviadoLegado = null;
+        }
+        String resposta = getXmlResposta();
+        if (resposta != null) {
+            xmlRespostaRef = store.apply(resposta);
+            xmlResposta = null;
+            xmlRespostaLegado = null;
+        }
+    }
+
+    /**
+     * Desfaz {@link #externalizeXml}: os XMLs voltam para o próprio registro, sem ponteiros.
+     */
+    public void restoreInlineXml(String enviado, String resposta) {
+        xmlEnviadoRef = null;
+        xmlRespostaRef = null;
+        setXmlEnviado(enviado);
+        setXmlResposta(resposta);
+    }
+
+    /**
+     * Indica se o registro ainda tem XML nas colunas sem compressão.
+     */
+    public boolean hasLegacyXml() {
+        return xmlEnviadoLegado != null || xmlRespostaLegado != null;
+    }
+
+    /**
+     * Move o XML das colunas sem compressão para as compactadas.
+     */
+    public void compressLegacyXml() {
+        if (xmlEnviadoLegado != null) {
+            setXmlEnviado(xmlEnviadoLegado);
+        }
+        if (xmlRespostaLegado != null) {
+            setXmlResposta(xmlRespostaLegado);
+        }
     }
 
     public int getStatusHttp() {
@@ -1,7 +1,26 @@
 package tech.vcinf.fiscalwebsocket.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import tech.vcinf.fiscalwebsocket.model.TransactionLog;
 
+import java.util.List;
+
 public interface TransactionLogRepository extends JpaRepository<TransactionLog, Long> {
+
+    // Registros com XML ainda nas colunas sem compressão, em ordem de id (paginação por chave)
+    @Query("select t from TransactionLog t where t.id > :afterId " +
+            "and (t.xmlEnviadoLegado is not null or t.xmlRespostaLegado is not null) order by t.id")
+    List<TransactionLog> findLegacyXmlAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    // Registros com XML gravado no próprio registro (compactado ou não), a mover para o PayloadStore
+    @Query("select t from TransactionLog t where t.id > :afterId " +
+            "and (t.xmlEnviado is not null or t.xmlResposta is not null " +
+            "or t.xmlEnviadoLegado is not null or t.xmlRespostaLegado is not null) order by t.id")
+    List<TransactionLog> findInlineXmlAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    @Query("select t from TransactionLog t where t.xmlEnviadoRef.segment = :segment or t.xmlRespostaRef.segment = :segment")
+    List<TransactionLog> findBySegment(@Param("segment") String segment);
 }
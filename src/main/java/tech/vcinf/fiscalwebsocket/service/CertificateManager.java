@@ -1,35 +1,246 @@
 package tech.vcinf.fiscalwebsocket.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import tech.vcinf.fiscalwebsocket.model.Emitente;
+import tech.vcinf.fiscalwebsocket.repository.EmitenteRepository;
 
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Fonte única do material de chave de cada emitente: chave privada com a cadeia de certificados
+ * e o SSLContext mTLS.
+ *
+ * O material de um CNPJ é montado por inteiro e publicado de uma vez; quem o usa (assinatura,
+ * transportes HTTP) compara a instância recebida com a que tem em cache para saber se precisa
+ * recriar os seus objetos. Um {@code register} dispara a recarga em segundo plano: as requisições
+ * continuam com o material anterior até o novo estar pronto, e só então ele é publicado. Se a
+ * recarga falhar, o anterior é descartado e a próxima requisição carrega o certificado na hora.
+ * Materiais vencidos (dValidate ou validade do certificado) são descartados periodicamente e nunca
+ * são entregues: o arquivo é relido uma vez e, se continuar vencido, a chamada falha.
+ */
 @Service
 public class CertificateManager {
 
-    private final Map<String, KeyStore> keyStoreCache = new ConcurrentHashMap<>();
+    private final TlsSessionManager tlsSessionManager;
+    private final TrustStoreManager trustStoreManager;
+    private final EmitenteCache emitenteCache;
+    private final EmitenteRepository emitenteRepository;
+    private final boolean warmUpOnStartup;
+    private final ExecutorService warmUpExecutor;
 
-    public KeyStore getKeyStore(Emitente emitente) throws Exception {
-        return keyStoreCache.computeIfAbsent(emitente.getCnpj(), cnpj -> {
-            try {
-                KeyStore keyStore = KeyStore.getInstance("PKCS12");
-                keyStore.load(new FileInputStream(emitente.getCaminhoCertificado()), emitente.getSenha().toCharArray());
-                return keyStore;
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to load KeyStore for CNPJ: " + cnpj, e);
+    private final Map<String, CompletableFuture<KeyMaterial>> materials = new ConcurrentHashMap<>();
+    // Recarga mais recente de cada CNPJ: uma recarga mais antiga que termine depois não é publicada
+    private final Map<String, CompletableFuture<KeyMaterial>> pendingReloads = new ConcurrentHashMap<>();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanosTotal = new AtomicLong();
+    private final AtomicLong backgroundReloads = new AtomicLong();
+    private final AtomicLong expiredEvictions = new AtomicLong();
+
+    /**
+     * Material de chave de um emitente, imutável. Uma nova instância é criada a cada recarga.
+     */
+    public record KeyMaterial(String cnpj, PrivateKey privateKey, List<X509Certificate> chain, SSLContext sslContext,
+                              LocalDateTime validUntil) {
+        public boolean isExpired() {
+            return validUntil != null && LocalDateTime.now().isAfter(validUntil);
+        }
+
+        public X509Certificate certificate() {
+            return chain.get(0);
+        }
+    }
+
+    public CertificateManager(TlsSessionManager tlsSessionManager,
+                              TrustStoreManager trustStoreManager,
+                              EmitenteCache emitenteCache,
+                              EmitenteRepository emitenteRepository,
+                              @Value("${fiscal.key-material.warm-up-on-startup:true}") boolean warmUpOnStartup,
+                              @Value("${fiscal.key-material.warm-up-threads:2}") int warmUpThreads) {
+        this.tlsSessionManager = tlsSessionManager;
+        this.trustStoreManager = trustStoreManager;
+        this.emitenteCache = emitenteCache;
+        this.emitenteRepository = emitenteRepository;
+        this.warmUpOnStartup = warmUpOnStartup;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.warmUpExecutor = Executors.newFixedThreadPool(warmUpThreads, runnable -> {
+            Thread thread = new Thread(runnable, "key-material-warmup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void init() {
+        // Certificado substituído via register: recarrega em segundo plano
+        emitenteCache.addInvalidationListener(this::reload);
+
+        if (!warmUpOnStartup) {
+            return;
+        }
+        warmUpExecutor.execute(() -> emitenteRepository.findAll().forEach(emitente ->
+                materials.computeIfAbsent(emitente.getCnpj(), cnpj -> CompletableFuture.supplyAsync(() -> build(emitente), warmUpExecutor))));
+    }
+
+    /**
+     * Retorna o material atual do emitente, carregando-o na primeira vez (ou aguardando a carga já iniciada por outra thread).
+     */
+    public KeyMaterial get(Emitente emitente) {
+        return get(emitente, true);
+    }
+
+    private KeyMaterial get(Emitente emitente, boolean reloadIfExpired) {
+        String cnpj = emitente.getCnpj();
+        CompletableFuture<KeyMaterial> future = materials.get(cnpj);
+        if (future == null) {
+            // Carga na própria thread; chamadas concorrentes para o mesmo CNPJ aguardam este future
+            CompletableFuture<KeyMaterial> created = new CompletableFuture<>();
+            future = materials.putIfAbsent(cnpj, created);
+            if (future == null) {
+                future = created;
+                try {
+                    created.complete(build(emitente));
+                } catch (RuntimeException e) {
+                    created.completeExceptionally(e);
+                }
+            }
+        }
+
+        KeyMaterial material;
+        try {
+            material = future.join();
+        } catch (CompletionException e) {
+            materials.remove(cnpj, future);
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+
+        if (material.isExpired()) {
+            // Vencido não fica em cache nem é usado: relê o arquivo uma vez (pode ter sido renovado)
+            materials.remove(cnpj, future);
+            if (reloadIfExpired) {
+                return get(emitente, false);
+            }
+            throw new IllegalStateException("Certificado do CNPJ " + cnpj + " vencido em " + material.validUntil());
+        }
+        return material;
+    }
+
+    /**
+     * Monta o material novo em segundo plano e, se a carga der certo, o publica no lugar do
+     * anterior. Até lá as requisições continuam com o material anterior.
+     */
+    public void reload(String cnpj) {
+        CompletableFuture<KeyMaterial> future = CompletableFuture.supplyAsync(() -> {
+            Emitente emitente = emitenteCache.get(cnpj)
+                    .orElseThrow(() -> new IllegalArgumentException("Emitente not found: " + cnpj));
+            return build(emitente);
+        }, warmUpExecutor);
+        pendingReloads.put(cnpj, future);
+        backgroundReloads.incrementAndGet();
+        future.whenComplete((material, error) -> {
+            if (!pendingReloads.remove(cnpj, future)) {
+                // Uma recarga mais recente do mesmo CNPJ já foi disparada
+                return;
+            }
+            if (error != null) {
+                // O certificado anterior não vale mais: a próxima requisição carrega de novo e recebe o erro
+                materials.remove(cnpj);
+                System.err.println("Falha ao recarregar o certificado do CNPJ " + cnpj + ": " + error.getMessage());
+            } else {
+                materials.put(cnpj, future);
             }
         });
     }
 
-    public KeyManagerFactory getKeyManagerFactory(Emitente emitente) throws Exception {
-        KeyStore keyStore = getKeyStore(emitente);
-        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        keyManagerFactory.init(keyStore, emitente.getSenha().toCharArray());
-        return keyManagerFactory;
+    @Scheduled(fixedDelayString = "${fiscal.key-material.expiry-check-ms:3600000}")
+    public void evictExpired() {
+        materials.forEach((cnpj, future) -> {
+            KeyMaterial material = future.getNow(null);
+            if (material != null && material.isExpired() && materials.remove(cnpj, future)) {
+                expiredEvictions.incrementAndGet();
+                System.out.println("Certificado vencido descartado do cache: CNPJ " + cnpj);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", materials.size());
+        long loadCount = loads.get();
+        stats.put("loads", loadCount);
+        stats.put("avgLoadMs", loadCount == 0 ? 0.0 : loadNanosTotal.get() / 1_000_000.0 / loadCount);
+        stats.put("backgroundReloads", backgroundReloads.get());
+        stats.put("expiredEvictions", expiredEvictions.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        warmUpExecutor.shutdownNow();
+    }
+
+    private KeyMaterial build(Emitente emitente) {
+        long start = System.nanoTime();
+        String cnpj = emitente.getCnpj();
+        try {
+            char[] senha = emitente.getSenha().toCharArray();
+
+            // 1. Carregar KeyStore do certificado do emitente
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = new FileInputStream(emitente.getCaminhoCertificado())) {
+                keyStore.load(in, senha);
+            }
+
+            // 2. KeyManagers (mTLS) e chave privada com a cadeia (assinatura)
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
+            keyManagerFactory.init(keyStore, senha);
+
+            KeyStore.PrivateKeyEntry keyEntry = (KeyStore.PrivateKeyEntry)
+                    keyStore.getEntry(keyStore.aliases().nextElement(), new KeyStore.PasswordProtection(senha));
+            List<X509Certificate> chain = new ArrayList<>();
+            for (Certificate certificate : keyEntry.getCertificateChain()) {
+                chain.add((X509Certificate) certificate);
+            }
+
+            // 3. SSLContext mTLS com o truststore compartilhado, com cache de sessões entre os hosts SEFAZ
+            SSLContext sslContext = tlsSessionManager.createContext(keyManagerFactory.getKeyManagers(),
+                    trustStoreManager.getTrustManagers());
+
+            // 4. Validade: a menor entre dValidate e a do certificado
+            LocalDateTime notAfter = LocalDateTime.ofInstant(chain.get(0).getNotAfter().toInstant(), ZoneId.systemDefault());
+            LocalDateTime dValidate = emitente.getdValidate();
+            LocalDateTime validUntil = dValidate != null && dValidate.isBefore(notAfter) ? dValidate : notAfter;
+
+            return new KeyMaterial(cnpj, keyEntry.getPrivateKey(), List.copyOf(chain), sslContext, validUntil);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load KeyStore for CNPJ: " + cnpj, e);
+        } finally {
+            loads.incrementAndGet();
+            loadNanosTotal.addAndGet(System.nanoTime() - start);
+        }
     }
 }
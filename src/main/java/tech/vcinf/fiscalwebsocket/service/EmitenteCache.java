@@ -0,0 +1,126 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.model.Emitente;
+import tech.vcinf.fiscalwebsocket.repository.EmitenteRepository;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cache read-through dos emitentes, limitado (LRU) e com TTL.
+ *
+ * Os emitentes só mudam no {@code register}, que chama {@link #invalidate}. O CertificateManager é
+ * ouvinte da invalidação e recarrega o material do certificado; os demais caches derivados dele
+ * (chave de assinatura, SSLContext, cliente HTTP) comparam a instância do material e se renovam
+ * no próximo uso. As instâncias em cache são compartilhadas e não devem ser alteradas.
+ */
+@Service
+public class EmitenteCache {
+
+    private final EmitenteRepository emitenteRepository;
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final Map<String, Entry> entries;
+    // Geração por CNPJ, incrementada a cada invalidação: uma carga iniciada antes dela não é guardada
+    private final Map<String, Long> generations = new HashMap<>();
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadNanosTotal = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong staleLoadsDiscarded = new AtomicLong();
+
+    private record Entry(Emitente emitente, long loadedAt) {}
+
+    public EmitenteCache(EmitenteRepository emitenteRepository,
+                         @Value("${fiscal.emitente-cache.max-size:10000}") int maxSize,
+                         @Value("${fiscal.emitente-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.emitenteRepository = emitenteRepository;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > EmitenteCache.this.maxSize;
+            }
+        };
+    }
+
+    public Optional<Emitente> get(String cnpj) {
+        if (cnpj == null) {
+            return Optional.empty();
+        }
+        long generation;
+        synchronized (entries) {
+            Entry entry = entries.get(cnpj);
+            if (entry != null && System.nanoTime() - entry.loadedAt() < ttlNanos) {
+                hits.incrementAndGet();
+                return Optional.of(entry.emitente());
+            }
+            generation = generations.getOrDefault(cnpj, 0L);
+        }
+
+        // Carga fora do lock: uma consulta lenta não bloqueia os demais CNPJs
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        Optional<Emitente> loaded = emitenteRepository.findById(cnpj);
+        long now = System.nanoTime();
+        loadNanosTotal.addAndGet(now - start);
+        synchronized (entries) {
+            if (generations.getOrDefault(cnpj, 0L) != generation) {
+                // Invalidado durante a carga: a linha lida pode ser anterior ao register
+                staleLoadsDiscarded.incrementAndGet();
+            } else if (loaded.isPresent()) {
+                entries.put(cnpj, new Entry(loaded.get(), now));
+            } else {
+                entries.remove(cnpj);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Descarta o emitente e notifica os ouvintes (ex.: após o register de um certificado novo).
+     */
+    public void invalidate(String cnpj) {
+        synchronized (entries) {
+            entries.remove(cnpj);
+            generations.merge(cnpj, 1L, Long::sum);
+        }
+        invalidations.incrementAndGet();
+        invalidationListeners.forEach(listener -> listener.accept(cnpj));
+    }
+
+    public void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("avgLoadMs", missCount == 0 ? 0.0 : loadNanosTotal.get() / 1_000_000.0 / missCount);
+        stats.put("invalidations", invalidations.get());
+        stats.put("staleLoadsDiscarded", staleLoadsDiscarded.get());
+        return stats;
+    }
+}
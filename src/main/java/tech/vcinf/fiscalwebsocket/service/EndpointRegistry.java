@@ -0,0 +1,364 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.util.Uf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Índice único dos endpoints da SEFAZ lidos do sefaz-urls.ini ({MODELO}.{SERVICO}.{UF}.{AMBIENTE}=URL).
+ *
+ * As URLs ficam num array plano indexado por (modelo, serviço, UF, ambiente), todos enums; a
+ * resolução de uma URL é só o cálculo do índice, sem mapas aninhados nem objetos temporários.
+ * O índice é imutável: quando o arquivo muda, um novo índice é montado e publicado de uma vez, e
+ * os ouvintes registrados (ex.: caches derivados) são avisados. Um arquivo ilegível, sem nenhuma URL
+ * ou que perderia mais de {@code fiscal.endpoints.max-drop-ratio} das URLs atuais (ex.: lido no
+ * meio de uma gravação) não é publicado e o índice anterior continua em uso.
+ */
+@Service
+public class EndpointRegistry {
+
+    public enum Modelo {
+        NFE("55"), NFCE("65"), MDFE("58"), CTE("57");
+
+        private static final Map<String, Modelo> LOOKUP = lookup(values(), Modelo::getCodigo);
+
+        private final String codigo;
+
+        Modelo(String codigo) {
+            this.codigo = codigo;
+        }
+
+        public String getCodigo() {
+            return codigo;
+        }
+
+        /**
+         * Aceita o nome ("NFE") ou o código do modelo ("55"); {@code null} se desconhecido.
+         */
+        public static Modelo of(String value) {
+            return find(LOOKUP, value);
+        }
+    }
+
+    public enum Servico {
+        STATUS, AUTORIZACAO, RET_AUTORIZACAO, CONSULTA, INUTILIZACAO, CONSULTA_CADASTRO, EVENTO,
+        CONS_NAO_ENC, DISTRIBUICAO_DFE, OS, GTV, SIMP;
+
+        private static final Map<String, Servico> LOOKUP = lookup(values(), Servico::name);
+
+        public static Servico of(String value) {
+            return find(LOOKUP, value);
+        }
+    }
+
+    public enum Ambiente {
+        PROD("1"), HOM("2");
+
+        private static final Map<String, Ambiente> LOOKUP = lookup(values(), Ambiente::getCodigo);
+
+        private final String codigo;
+
+        Ambiente(String codigo) {
+            this.codigo = codigo;
+        }
+
+        /**
+         * Código tpAmb do leiaute (1 = produção, 2 = homologação).
+         */
+        public String getCodigo() {
+            return codigo;
+        }
+
+        /**
+         * Aceita o nome usado no ini ("PROD") ou o tpAmb enviado pelos clientes ("1").
+         */
+        public static Ambiente of(String value) {
+            return find(LOOKUP, value);
+        }
+    }
+
+    private static final Modelo[] MODELOS = Modelo.values();
+    private static final Servico[] SERVICOS = Servico.values();
+    private static final Uf[] UFS = Uf.values();
+    private static final Ambiente[] AMBIENTES = Ambiente.values();
+
+    /**
+     * Versão imutável do índice. {@code urls} tem uma posição para cada combinação possível.
+     */
+    private record Snapshot(String[] urls, int entries, String source, LocalDateTime loadedAt) {}
+
+    private final String location;
+    private final String fallbackLocation;
+    private final boolean watch;
+    private final double maxDropRatio;
+    private final DefaultResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+    private final AtomicLong rejectedReloads = new AtomicLong();
+    private volatile WatchService watchService;
+
+    public EndpointRegistry(@Value("${fiscal.endpoints.location:file:src/main/resources/sefaz-urls.ini}") String location,
+                            @Value("${fiscal.endpoints.fallback-location:classpath:sefaz-urls.ini}") String fallbackLocation,
+                            @Value("${fiscal.endpoints.watch:true}") boolean watch,
+                            @Value("${fiscal.endpoints.max-drop-ratio:0.5}") double maxDropRatio) {
+        this.location = location;
+        this.fallbackLocation = fallbackLocation;
+        this.watch = watch;
+        this.maxDropRatio = maxDropRatio;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            reload();
+        } catch (Exception e) {
+            System.err.println("FALHA CRÍTICA: Não foi possível carregar o arquivo 'sefaz-urls.ini'. Nenhum serviço SEFAZ estará disponível.");
+            e.printStackTrace();
+            current.set(new Snapshot(new String[MODELOS.length * SERVICOS.length * UFS.length * AMBIENTES.length], 0, "vazio", LocalDateTime.now()));
+        }
+        startWatcher();
+    }
+
+    /**
+     * URL do serviço ou {@code null} se a combinação não existir no ini.
+     */
+    public String getUrl(String modelo, String servico, String uf, String ambiente) {
+        return getUrl(Modelo.of(modelo), Servico.of(servico), Uf.of(uf), Ambiente.of(ambiente));
+    }
+
+    public String getUrl(Modelo modelo, Servico servico, Uf uf, Ambiente ambiente) {
+        if (modelo == null || servico == null || uf == null || ambiente == null) {
+            return null;
+        }
+        return current.get().urls()[index(modelo, servico, uf, ambiente)];
+    }
+
+    /**
+     * Serviços com URL configurada para a combinação, na ordem do enum.
+     */
+    public List<Servico> getServicos(Modelo modelo, Uf uf, Ambiente ambiente) {
+        if (modelo == null || uf == null || ambiente == null) {
+            return List.of();
+        }
+        String[] urls = current.get().urls();
+        List<Servico> servicos = new ArrayList<>();
+        for (Servico servico : SERVICOS) {
+            if (urls[index(modelo, servico, uf, ambiente)] != null) {
+                servicos.add(servico);
+            }
+        }
+        return servicos;
+    }
+
+    /**
+     * Notificado após cada recarga bem-sucedida do ini.
+     */
+    public void addReloadListener(Runnable listener) {
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * Relê o ini e publica o novo índice. Em caso de erro, ou se o resultado parecer truncado, o
+     * índice atual continua em uso.
+     *
+     * @throws IllegalStateException se o ini não tiver URLs ou perderia URLs demais em relação ao atual
+     */
+    public synchronized void reload() throws IOException {
+        Resource resource = resolveResource();
+        String[] urls = new String[MODELOS.length * SERVICOS.length * UFS.length * AMBIENTES.length];
+        int entries = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("[") || !line.contains("=")) continue;
+
+                // Formato esperado: {MODELO}.{SERVICO}.{UF}.{AMBIENTE}=URL
+                int separator = line.indexOf('=');
+                String[] keyParts = line.substring(0, separator).trim().split("\\.");
+                String url = line.substring(separator + 1).trim();
+                if (keyParts.length != 4) {
+                    System.err.println("sefaz-urls.ini linha " + lineNumber + " ignorada: chave fora do formato MODELO.SERVICO.UF.AMBIENTE");
+                    continue;
+                }
+
+                Modelo modelo = Modelo.of(keyParts[0]);
+                Servico servico = Servico.of(keyParts[1]);
+                Uf uf = Uf.of(keyParts[2]);
+                Ambiente ambiente = Ambiente.of(keyParts[3]);
+                if (modelo == null || servico == null || uf == null || ambiente == null) {
+                    System.err.println("sefaz-urls.ini linha " + lineNumber + " ignorada: chave desconhecida " + line.substring(0, separator));
+                    continue;
+                }
+                int index = index(modelo, servico, uf, ambiente);
+                if (urls[index] == null) {
+                    entries++;
+                }
+                urls[index] = url;
+            }
+        }
+
+        // Um arquivo lido pela metade ainda é sintaticamente válido: recusa o que encolher demais
+        Snapshot atual = current.get();
+        if (entries == 0 || (atual != null && entries < atual.entries() * (1 - maxDropRatio))) {
+            rejectedReloads.incrementAndGet();
+            throw new IllegalStateException("sefaz-urls.ini com " + entries + " URLs"
+                    + (atual != null ? " (atual: " + atual.entries() + ")" : "") + " não foi publicado");
+        }
+
+        Snapshot previous = current.getAndSet(new Snapshot(urls, entries, resource.getDescription(), LocalDateTime.now()));
+        System.out.println("Endpoints SEFAZ carregados de " + resource.getDescription() + ": " + entries + " URLs");
+        if (previous != null) {
+            reloads.incrementAndGet();
+            // O índice novo já está publicado: falha de um ouvinte não desfaz nem reprova a recarga
+            for (Runnable listener : reloadListeners) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Falha ao notificar a recarga do sefaz-urls.ini: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Snapshot snapshot = current.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("source", snapshot.source());
+        stats.put("loadedAt", snapshot.loadedAt().toString());
+        stats.put("entries", snapshot.entries());
+        stats.put("reloads", reloads.get());
+        stats.put("failedReloads", failedReloads.get());
+        stats.put("rejectedReloads", rejectedReloads.get());
+        stats.put("watching", watchService != null);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        WatchService service = watchService;
+        watchService = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                // Encerrando
+            }
+        }
+    }
+
+    private static int index(Modelo modelo, Servico servico, Uf uf, Ambiente ambiente) {
+        return ((modelo.ordinal() * SERVICOS.length + servico.ordinal()) * UFS.length + uf.ordinal()) * AMBIENTES.length
+                + ambiente.ordinal();
+    }
+
+    private Resource resolveResource() {
+        Resource resource = resourceLoader.getResource(location);
+        return resource.exists() ? resource : resourceLoader.getResource(fallbackLocation);
+    }
+
+    /**
+     * Observa o diretório do ini (apenas quando ele é um arquivo no disco) e recarrega a cada alteração.
+     */
+    private void startWatcher() {
+        if (!watch) {
+            return;
+        }
+        Path file;
+        WatchService service;
+        try {
+            Resource resource = resolveResource();
+            if (!resource.isFile()) {
+                return;
+            }
+            File iniFile = resource.getFile();
+            file = iniFile.toPath().toAbsolutePath();
+            service = FileSystems.getDefault().newWatchService();
+            file.getParent().register(service, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            watchService = service;
+        } catch (IOException e) {
+            System.err.println("AVISO: recarga automática do sefaz-urls.ini desativada: " + e.getMessage());
+            return;
+        }
+
+        Path fileName = file.getFileName();
+        Thread.ofPlatform().daemon().name("sefaz-urls-watcher").start(() -> {
+            try {
+                while (true) {
+                    // Referência local: o shutdown zera o campo e fecha o serviço, encerrando o take()
+                    WatchKey key = service.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= fileName.equals(event.context());
+                    }
+                    key.reset();
+                    if (changed) {
+                        // Editores gravam em mais de uma etapa: aguarda as escritas assentarem
+                        Thread.sleep(200);
+                        try {
+                            reload();
+                        } catch (Exception e) {
+                            failedReloads.incrementAndGet();
+                            System.err.println("Falha ao recarregar sefaz-urls.ini, mantendo a versão anterior: " + e.getMessage());
+                        }
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Encerrando
+            }
+        });
+    }
+
+    // Nome e código de cada constante -> constante
+    private static <E extends Enum<E>> Map<String, E> lookup(E[] values, Function<E, String> codigo) {
+        Map<String, E> lookup = new HashMap<>();
+        for (E value : values) {
+            lookup.put(value.name(), value);
+            lookup.put(codigo.apply(value), value);
+        }
+        return Map.copyOf(lookup);
+    }
+
+    private static <E> E find(Map<String, E> lookup, String value) {
+        if (value == null) {
+            return null;
+        }
+        E found = lookup.get(value);
+        // toUpperCase devolve a própria string quando já está em maiúsculas
+        return found != null ? found : lookup.get(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,105 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.dto.PreSerializedJson;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Ambiente;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Modelo;
+import tech.vcinf.fiscalwebsocket.util.Uf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Catálogos de operações já serializados em JSON, um para cada (modelo, UF, ambiente).
+ *
+ * O catálogo só depende dessa combinação e do sefaz-urls.ini, então todas as combinações são
+ * montadas e serializadas de uma vez na inicialização e novamente a cada recarga do
+ * {@link EndpointRegistry}. O get_operations devolve o JSON pronto, sem montar DTOs nem
+ * serializá-los de novo. Entradas que não correspondem a nenhum enum caem no cálculo normal.
+ */
+@Service
+public class OperationCatalogCache {
+
+    private static final Modelo[] MODELOS = Modelo.values();
+    private static final Uf[] UFS = Uf.values();
+    private static final Ambiente[] AMBIENTES = Ambiente.values();
+
+    private final OperationDiscoveryService operationDiscoveryService;
+    private final EndpointRegistry endpointRegistry;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicReference<PreSerializedJson[]> catalogs = new AtomicReference<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    public OperationCatalogCache(OperationDiscoveryService operationDiscoveryService, EndpointRegistry endpointRegistry) {
+        this.operationDiscoveryService = operationDiscoveryService;
+        this.endpointRegistry = endpointRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+
+        // ini alterado: os catálogos são recalculados e trocados de uma vez
+        endpointRegistry.addReloadListener(this::rebuild);
+    }
+
+    /**
+     * Catálogo da combinação: o JSON pré-serializado ou, para valores não reconhecidos, o catálogo calculado na hora.
+     */
+    public Object get(String modelo, String uf, String ambiente) {
+        Modelo resolvedModelo = Modelo.of(modelo);
+        Uf resolvedUf = Uf.of(uf);
+        Ambiente resolvedAmbiente = Ambiente.of(ambiente);
+        if (resolvedModelo == null || resolvedUf == null || resolvedAmbiente == null) {
+            fallbacks.incrementAndGet();
+            return operationDiscoveryService.getAvailableOperations(modelo, uf, ambiente);
+        }
+        hits.incrementAndGet();
+        return catalogs.get()[index(resolvedModelo, resolvedUf, resolvedAmbiente)];
+    }
+
+    public void rebuild() {
+        long start = System.nanoTime();
+        PreSerializedJson[] built = new PreSerializedJson[MODELOS.length * UFS.length * AMBIENTES.length];
+        long bytes = 0;
+        try {
+            for (Modelo modelo : MODELOS) {
+                for (Uf uf : UFS) {
+                    for (Ambiente ambiente : AMBIENTES) {
+                        PreSerializedJson json = new PreSerializedJson(objectMapper.writeValueAsString(
+                                operationDiscoveryService.getAvailableOperations(modelo.name(), uf.name(), ambiente.name())));
+                        built[index(modelo, uf, ambiente)] = json;
+                        bytes += json.length();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Falha ao serializar o catálogo de operações", e);
+        }
+        catalogs.set(built);
+        rebuilds.incrementAndGet();
+        System.out.println("Catálogo de operações pré-serializado: " + built.length + " combinações, "
+                + bytes + " caracteres em " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("combinations", catalogs.get().length);
+        stats.put("hits", hits.get());
+        stats.put("fallbacks", fallbacks.get());
+        stats.put("rebuilds", rebuilds.get());
+        return stats;
+    }
+
+    private static int index(Modelo modelo, Uf uf, Ambiente ambiente) {
+        return (modelo.ordinal() * UFS.length + uf.ordinal()) * AMBIENTES.length + ambiente.ordinal();
+    }
+}
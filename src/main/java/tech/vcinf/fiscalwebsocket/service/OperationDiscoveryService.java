@@ -2,38 +2,38 @@ package tech.vcinf.fiscalwebsocket.service;
 
 import org.springframework.stereotype.Service;
 import tech.vcinf.fiscalwebsocket.dto.*;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Ambiente;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Modelo;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Servico;
+import tech.vcinf.fiscalwebsocket.util.Uf;
 
-import jakarta.annotation.PostConstruct;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
 public class OperationDiscoveryService {
 
-    // Cache para as URLs do sefaz-urls.ini: <Modelo, <UF, <Ambiente, <Servico, URL>>>>
-    private final Map<String, Map<String, Map<String, Map<String, String>>>> operationsCache = new HashMap<>();
+    private final EndpointRegistry endpointRegistry;
 
-    // Definição centralizada dos metadados de cada operação fiscal
-    private static final Map<String, OperationMetadata> OPERATION_METADATA = new HashMap<>();
+    // Definição centralizada dos metadados de cada operação fiscal, pela mesma chave de serviço do sefaz-urls.ini
+    private static final Map<Servico, OperationMetadata> OPERATION_METADATA = new EnumMap<>(Servico.class);
 
     // Record para armazenar os metadados de forma concisa
     private record OperationMetadata(String key, String label, String description, String category, boolean requiresSignature, List<FormField> fields) {}
 
     static {
         // Categoria: Consultas
-        OPERATION_METADATA.put("NFeStatusServico4", new OperationMetadata("STATUS", "Status do Serviço", "Verifica a disponibilidade do web service da SEFAZ.", "Consultas", false, List.of()));
-        OPERATION_METADATA.put("NFeConsulta4", new OperationMetadata("CONSULTA", "Consultar NF-e", "Consulta a situação de uma NF-e pela chave de acesso.", "Consultas", false, 
+        OPERATION_METADATA.put(Servico.STATUS, new OperationMetadata("STATUS", "Status do Serviço", "Verifica a disponibilidade do web service da SEFAZ.", "Consultas", false, List.of()));
+        OPERATION_METADATA.put(Servico.CONSULTA, new OperationMetadata("CONSULTA", "Consultar NF-e", "Consulta a situação de uma NF-e pela chave de acesso.", "Consultas", false, 
             List.of(newFormField("chNFe", "Chave de Acesso", "text", "Digite os 44 dígitos da chave de acesso", true))
         ));
-        OPERATION_METADATA.put("CadConsultaCadastro4", new OperationMetadata("CONSULTA_CADASTRO", "Consulta Cadastro", "Consulta a situação cadastral de um contribuinte.", "Consultas", false, 
+        OPERATION_METADATA.put(Servico.CONSULTA_CADASTRO, new OperationMetadata("CONSULTA_CADASTRO", "Consulta Cadastro", "Consulta a situação cadastral de um contribuinte.", "Consultas", false, 
              List.of(newFormField("CNPJ", "CNPJ do Contribuinte", "text", "Digite o CNPJ a ser consultado", true))
         ));
 
         // Categoria: Transações
-        OPERATION_METADATA.put("NFeAutorizacao4", new OperationMetadata("AUTORIZACAO", "Autorização", "Envia um lote de NF-es para autorização de uso.", "Transações", true, List.of())); // XML completo vem do cliente
-        OPERATION_METADATA.put("NFeInutilizacao4", new OperationMetadata("INUTILIZACAO", "Inutilizar Numeração", "Solicita a inutilização de uma faixa de números de NF-e.", "Transações", true, 
+        OPERATION_METADATA.put(Servico.AUTORIZACAO, new OperationMetadata("AUTORIZACAO", "Autorização", "Envia um lote de NF-es para autorização de uso.", "Transações", true, List.of())); // XML completo vem do cliente
+        OPERATION_METADATA.put(Servico.INUTILIZACAO, new OperationMetadata("INUTILIZACAO", "Inutilizar Numeração", "Solicita a inutilização de uma faixa de números de NF-e.", "Transações", true, 
             List.of(
                 newFormField("serie", "Série", "number", "Série da NF-e", true),
                 newFormField("numIni", "Número Inicial", "number", "Primeiro número da faixa", true),
@@ -43,7 +43,7 @@ public class OperationDiscoveryService {
         ));
 
         // Categoria: Eventos
-        OPERATION_METADATA.put("RecepcaoEvento4", new OperationMetadata("EVENTO", "Evento (Cancelamento/CC-e)", "Registra um evento para uma NF-e, como cancelamento ou carta de correção.", "Eventos", true, 
+        OPERATION_METADATA.put(Servico.EVENTO, new OperationMetadata("EVENTO", "Evento (Cancelamento/CC-e)", "Registra um evento para uma NF-e, como cancelamento ou carta de correção.", "Eventos", true, 
             List.of(
                 newFormField("chNFe", "Chave de Acesso", "text", "Chave da NF-e a ser afetada", true),
                 newFormField("tpEvento", "Tipo do Evento", "select", "", true), // Options preenchidas no front
@@ -66,38 +66,8 @@ public class OperationDiscoveryService {
         return field;
     }
 
-    @PostConstruct
-    public void init() {
-        // Carrega o arquivo de URLs para o cache na inicialização
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("/sefaz-urls.ini")))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#") || !line.contains("=")) continue;
-
-                String[] parts = line.split("=");
-                String key = parts[0];
-                String url = parts[1];
-
-                // Formato esperado: {MODELO}.{SERVICO}.{UF}.{AMBIENTE}
-                String[] keyParts = key.split("\\.");
-                if (keyParts.length == 4) {
-                    String modelo = keyParts[0];
-                    String servico = keyParts[1];
-                    String uf = keyParts[2];
-                    String ambiente = keyParts[3];
-
-                    operationsCache
-                        .computeIfAbsent(modelo, k -> new HashMap<>())
-                        .computeIfAbsent(uf, k -> new HashMap<>())
-                        .computeIfAbsent(ambiente, k -> new HashMap<>())
-                        .put(servico, url);
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("FALHA CRÍTICA: Não foi possível carregar o arquivo 'sefaz-urls.ini'. O serviço de operações não funcionará.");
-            e.printStackTrace();
-        }
+    public OperationDiscoveryService(EndpointRegistry endpointRegistry) {
+        this.endpointRegistry = endpointRegistry;
     }
 
     public OperationCatalog getAvailableOperations(String modelo, String uf, String ambiente) {
@@ -107,10 +77,7 @@ public class OperationDiscoveryService {
         catalog.setAmbiente(ambiente);
 
         // Obtém os serviços disponíveis para a combinação de modelo, UF e ambiente
-        Map<String, String> availableServices = operationsCache
-            .getOrDefault(modelo, Collections.emptyMap())
-            .getOrDefault(uf, Collections.emptyMap())
-            .getOrDefault(ambiente, Collections.emptyMap());
+        List<Servico> availableServices = endpointRegistry.getServicos(Modelo.of(modelo), Uf.of(uf), Ambiente.of(ambiente));
 
         if (availableServices.isEmpty()) {
             catalog.setCategorias(Collections.emptyList());
@@ -118,7 +85,7 @@ public class OperationDiscoveryService {
         }
 
         // Agrupa as operações disponíveis por sua categoria definida nos metadados
-        Map<String, List<Operation>> groupedByCategory = availableServices.keySet().stream()
+        Map<String, List<Operation>> groupedByCategory = availableServices.stream()
             .filter(OPERATION_METADATA::containsKey) // Processa apenas serviços com metadados definidos
             .map(serviceKey -> {
                 OperationMetadata meta = OPERATION_METADATA.get(serviceKey);
@@ -0,0 +1,411 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.model.PayloadPointer;
+import tech.vcinf.fiscalwebsocket.model.TransactionLog;
+import tech.vcinf.fiscalwebsocket.util.XmlCompressor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Armazenamento append-only dos XMLs fiscais em arquivos de segmento.
+ *
+ * Os XMLs (compactados com {@link XmlCompressor}) são gravados sequencialmente no segmento ativo,
+ * que é trocado por tamanho ou na virada do dia ({@code yyyyMMdd-NNNNNN.seg}). Cada registro tem
+ * o cabeçalho [magic][tamanho][CRC32C] seguido do conteúdo; o banco guarda só o {@link PayloadPointer}.
+ * Segmentos fechados são lidos mapeados em memória, cada um mapeado uma única vez; o segmento
+ * ativo, que ainda cresce, é lido com leituras posicionais num canal próprio de leitura.
+ *
+ * Os ponteiros precisam sobreviver a um reinício junto com os segmentos: por isso o armazenamento
+ * vem desabilitado e só pode ser habilitado com um datasource persistente (não {@code jdbc:h2:mem:}).
+ *
+ * Na inicialização o segmento ativo é percorrido e truncado no primeiro registro incompleto ou
+ * corrompido (gravação interrompida por queda). Registros sem ponteiro no banco são recuperados
+ * pela compactação ({@link #compact}).
+ */
+@Service
+public class PayloadStore {
+
+    private static final int MAGIC = 0x46495343; // "FISC"
+    private static final int HEADER_LENGTH = 12;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String IN_MEMORY_DATASOURCE = "jdbc:h2:mem:";
+
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final boolean enabled;
+
+    private FileChannel activeChannel;
+    private volatile String activeSegment;
+    private LocalDate activeDay;
+    private long activePosition;
+
+    // Canal de leitura do segmento ativo, separado do de escrita: a interrupção de um leitor fecha
+    // só este canal, que é reaberto na próxima leitura
+    private final Object readerLock = new Object();
+    private FileChannel activeReader;
+    private String activeReaderSegment;
+
+    // Segmentos fechados mapeados para leitura (o mapeamento é do arquivo inteiro, que não muda mais)
+    private final Map<String, MappedByteBuffer> mappedSegments = new ConcurrentHashMap<>();
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong rotations = new AtomicLong();
+
+    public PayloadStore(@Value("${fiscal.payload-store.dir:payloads}") String directory,
+                        @Value("${fiscal.payload-store.segment-max-bytes:268435456}") long segmentMaxBytes,
+                        @Value("${fiscal.payload-store.enabled:false}") boolean enabled,
+                        @Value("${spring.datasource.url:}") String datasourceUrl) {
+        if (enabled && datasourceUrl.startsWith(IN_MEMORY_DATASOURCE)) {
+            // Com o banco em memória os ponteiros somem a cada reinício e os segmentos viram lixo
+            throw new IllegalStateException("fiscal.payload-store.enabled exige um datasource persistente; "
+                    + "spring.datasource.url atual: " + datasourceUrl);
+        }
+        if (segmentMaxBytes <= HEADER_LENGTH || segmentMaxBytes > Integer.MAX_VALUE) {
+            // A leitura mapeia o segmento inteiro num único MappedByteBuffer (limite de 2 GB)
+            throw new IllegalArgumentException("fiscal.payload-store.segment-max-bytes deve estar entre " + HEADER_LENGTH + " e " + Integer.MAX_VALUE);
+        }
+        this.directory = Path.of(directory);
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        List<String> segments = listSegments();
+        LocalDate today = LocalDate.now();
+        if (!segments.isEmpty()) {
+            String last = segments.get(segments.size() - 1);
+            recover(last);
+            if (segmentDay(last).equals(today)) {
+                openActive(last, today);
+                return;
+            }
+        }
+        openActive(nextSegmentName(today), today);
+    }
+
+    /**
+     * Grava o XML no segmento ativo e retorna o ponteiro do registro. A gravação só é durável
+     * após {@link #sync()}.
+     */
+    public synchronized PayloadPointer append(String xml) {
+        if (!enabled) {
+            throw new IllegalStateException("PayloadStore desabilitado");
+        }
+        byte[] payload = XmlCompressor.compress(xml);
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        long checksum = crc.getValue();
+
+        try {
+            LocalDate today = LocalDate.now();
+            long recordLength = HEADER_LENGTH + payload.length;
+            if (!today.equals(activeDay) || (activePosition > 0 && activePosition + recordLength > segmentMaxBytes)) {
+                rotate(today);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(payload.length).putInt((int) checksum).flip();
+            ByteBuffer body = ByteBuffer.wrap(payload);
+            long offset = activePosition;
+            long position = offset;
+            while (header.hasRemaining()) {
+                position += activeChannel.write(header, position);
+            }
+            while (body.hasRemaining()) {
+                position += activeChannel.write(body, position);
+            }
+            activePosition = position;
+
+            appends.incrementAndGet();
+            appendedBytes.addAndGet(recordLength);
+            return new PayloadPointer(activeSegment, offset, payload.length, checksum);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao gravar XML no segmento " + activeSegment, e);
+        }
+    }
+
+    /**
+     * Força em disco o que foi gravado no segmento ativo.
+     */
+    public synchronized void sync() {
+        if (activeChannel == null) {
+            return;
+        }
+        try {
+            activeChannel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao sincronizar o segmento " + activeSegment, e);
+        }
+    }
+
+    public String read(PayloadPointer pointer) {
+        ByteBuffer view = readActive(pointer);
+        if (view == null) {
+            view = mapped(pointer.segment(), pointer.offset() + HEADER_LENGTH + pointer.length()).duplicate();
+            view.position((int) pointer.offset());
+        }
+        if (view.getInt() != MAGIC || view.getInt() != pointer.length()) {
+            throw new IllegalStateException("Registro inválido em " + pointer.segment() + "@" + pointer.offset());
+        }
+        view.getInt();
+        byte[] payload = new byte[pointer.length()];
+        view.get(payload);
+
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        if (crc.getValue() != pointer.checksum()) {
+            throw new IllegalStateException("Checksum divergente em " + pointer.segment() + "@" + pointer.offset());
+        }
+        reads.incrementAndGet();
+        return XmlCompressor.decompress(payload);
+    }
+
+    public String readXmlEnviado(TransactionLog log) {
+        return log.getXmlEnviadoRef() != null ? read(log.getXmlEnviadoRef()) : log.getXmlEnviado();
+    }
+
+    public String readXmlResposta(TransactionLog log) {
+        return log.getXmlRespostaRef() != null ? read(log.getXmlRespostaRef()) : log.getXmlResposta();
+    }
+
+    /**
+     * Copia os registros ainda referenciados de um segmento fechado para o segmento ativo e retorna
+     * o novo ponteiro de cada um. Depois que o banco for atualizado, o segmento antigo pode ser
+     * removido com {@link #deleteSegment}.
+     */
+    public synchronized Map<PayloadPointer, PayloadPointer> compact(String segment, Collection<PayloadPointer> live) {
+        if (segment.equals(activeSegment)) {
+            throw new IllegalArgumentException("O segmento ativo não pode ser compactado: " + segment);
+        }
+        Map<PayloadPointer, PayloadPointer> moved = new HashMap<>();
+        for (PayloadPointer pointer : live) {
+            if (segment.equals(pointer.segment()) && !moved.containsKey(pointer)) {
+                moved.put(pointer, append(read(pointer)));
+            }
+        }
+        sync();
+        return moved;
+    }
+
+    public synchronized void deleteSegment(String segment) throws IOException {
+        if (segment.equals(activeSegment)) {
+            throw new IllegalArgumentException("O segmento ativo não pode ser removido: " + segment);
+        }
+        // O mapeamento é liberado pelo GC quando não houver mais leituras com ele
+        mappedSegments.remove(segment);
+        Files.deleteIfExists(directory.resolve(segment));
+    }
+
+    /**
+     * Segmentos fechados (exceto o ativo), com o tamanho em bytes de cada um.
+     */
+    public synchronized Map<String, Long> sealedSegments() throws IOException {
+        Map<String, Long> sealed = new LinkedHashMap<>();
+        for (String segment : listSegments()) {
+            if (!segment.equals(activeSegment)) {
+                sealed.put(segment, Files.size(directory.resolve(segment)));
+            }
+        }
+        return sealed;
+    }
+
+    public static int recordLength(PayloadPointer pointer) {
+        return HEADER_LENGTH + pointer.length();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("directory", directory.toAbsolutePath().toString());
+        stats.put("activeSegment", activeSegment);
+        stats.put("activeSegmentBytes", activePosition);
+        stats.put("appends", appends.get());
+        stats.put("appendedBytes", appendedBytes.get());
+        stats.put("reads", reads.get());
+        stats.put("rotations", rotations.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        closeActiveReader();
+        if (activeChannel != null) {
+            activeChannel.force(true);
+            activeChannel.close();
+            activeChannel = null;
+        }
+    }
+
+    /**
+     * Lê o registro do segmento ativo com uma leitura posicional; {@code null} se o ponteiro for de
+     * um segmento fechado (inclusive um que acabou de ser trocado durante a leitura).
+     */
+    private ByteBuffer readActive(PayloadPointer pointer) {
+        while (pointer.segment().equals(activeSegment)) {
+            FileChannel reader;
+            try {
+                synchronized (readerLock) {
+                    if (!pointer.segment().equals(activeSegment)) {
+                        return null;
+                    }
+                    if (activeReader == null || !activeReader.isOpen() || !pointer.segment().equals(activeReaderSegment)) {
+                        if (activeReader != null) {
+                            activeReader.close();
+                        }
+                        activeReader = FileChannel.open(directory.resolve(pointer.segment()), StandardOpenOption.READ);
+                        activeReaderSegment = pointer.segment();
+                    }
+                    reader = activeReader;
+                }
+                ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + pointer.length());
+                while (record.hasRemaining()) {
+                    if (reader.read(record, pointer.offset() + record.position()) < 0) {
+                        throw new IllegalStateException("Registro além do fim do segmento " + pointer.segment());
+                    }
+                }
+                return record.flip();
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new UncheckedIOException("Leitura interrompida no segmento " + pointer.segment(), e);
+                }
+                // Canal fechado pela troca de segmento ou pela interrupção de outro leitor: tenta de novo
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao ler o segmento " + pointer.segment(), e);
+            }
+        }
+        return null;
+    }
+
+    private MappedByteBuffer mapped(String segment, long requiredLength) {
+        MappedByteBuffer buffer = mappedSegments.computeIfAbsent(segment, key -> {
+            try (FileChannel channel = FileChannel.open(directory.resolve(segment), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao mapear o segmento " + segment, e);
+            }
+        });
+        if (buffer.capacity() < requiredLength) {
+            throw new IllegalStateException("Registro além do fim do segmento " + segment);
+        }
+        return buffer;
+    }
+
+    private void closeActiveReader() throws IOException {
+        synchronized (readerLock) {
+            if (activeReader != null) {
+                activeReader.close();
+                activeReader = null;
+            }
+        }
+    }
+
+    private void rotate(LocalDate today) throws IOException {
+        activeChannel.force(true);
+        activeChannel.close();
+        openActive(nextSegmentName(today), today);
+        closeActiveReader();
+        rotations.incrementAndGet();
+    }
+
+    private void openActive(String segment, LocalDate day) throws IOException {
+        activeChannel = FileChannel.open(directory.resolve(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSegment = segment;
+        activeDay = day;
+        activePosition = activeChannel.size();
+    }
+
+    // Percorre o segmento e descarta o que vier depois do último registro íntegro
+    private void recover(String segment) throws IOException {
+        Path path = directory.resolve(segment);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            long records = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (position + HEADER_LENGTH <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int magic = header.getInt();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (magic != MAGIC || length < 0 || position + HEADER_LENGTH + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                channel.read(payload, position + HEADER_LENGTH);
+                CRC32C crc = new CRC32C();
+                crc.update(payload.flip());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                position += HEADER_LENGTH + length;
+                records++;
+            }
+            if (position < size) {
+                channel.truncate(position);
+                channel.force(true);
+                System.err.println("Segmento " + segment + " truncado em " + position + " bytes (" + (size - position) + " bytes descartados)");
+            }
+            System.out.println("Segmento " + segment + " verificado: " + records + " registros");
+        }
+    }
+
+    private List<String> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private String nextSegmentName(LocalDate day) throws IOException {
+        String prefix = DAY_FORMAT.format(day) + "-";
+        int sequence = 0;
+        for (String segment : listSegments()) {
+            if (segment.startsWith(prefix)) {
+                sequence = Math.max(sequence, Integer.parseInt(segment.substring(prefix.length(), segment.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        return prefix + String.format("%06d", sequence + 1) + SEGMENT_SUFFIX;
+    }
+
+    private static LocalDate segmentDay(String segment) {
+        return LocalDate.parse(segment.substring(0, 8), DAY_FORMAT);
+    }
+}
@@ -0,0 +1,215 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Ambiente;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Modelo;
+import tech.vcinf.fiscalwebsocket.util.Uf;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache das respostas dos serviços consultivos (sem assinatura), limitado (LRU) e com TTL por serviço.
+ *
+ * A chave é (serviço, modelo, UF, ambiente, XML normalizado), de modo que a mesma consulta feita
+ * por terminais diferentes é respondida uma vez pela SEFAZ dentro do TTL, evitando também a
+ * rejeição por consumo indevido. Consultas idênticas simultâneas aguardam a mesma requisição.
+ * Serviços com TTL 0 (ex.: RET_AUTORIZACAO, cujo resultado muda até o lote ser processado)
+ * nunca são guardados. Só são guardadas respostas com cStat da faixa 1xx (exceto paralisação):
+ * SOAP faults e páginas de erro (sem cStat) e rejeições (2xx a 9xx, inclusive as ligadas ao
+ * certificado de quem consultou, já que a chave não tem o CNPJ) vão sempre à SEFAZ.
+ */
+@Service
+public class ResponseCache {
+
+    // 108/109: serviço paralisado momentaneamente / sem previsão
+    private static final Set<String> C_STAT_NAO_CACHEAVEIS = Set.of("108", "109");
+
+    private static final Pattern C_STAT = Pattern.compile("<(?:\\w+:)?cStat>(\\d{3})</(?:\\w+:)?cStat>");
+    private static final Pattern WHITESPACE_BETWEEN_TAGS = Pattern.compile(">\\s+<");
+
+    private final Map<String, Long> ttlNanosPorServico = new HashMap<>();
+    private final int maxSize;
+
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private record Entry(String responseBody, long storedAt, long ttlNanos) {}
+
+    /**
+     * Resposta obtida do cache ou da SEFAZ; {@code ageMs} é nulo quando veio da SEFAZ nesta requisição.
+     */
+    public record Result(String responseBody, Long ageMs) {}
+
+    public ResponseCache(@Value("${fiscal.response-cache.ttl-seconds:STATUS:60,CONSULTA:300,CONSULTA_CADASTRO:3600,RET_AUTORIZACAO:0}") String[] ttls,
+                         @Value("${fiscal.response-cache.max-size:10000}") int maxSize) {
+        // Formato SERVICO:SEGUNDOS, ex.: CONSULTA:300
+        for (String ttl : ttls) {
+            String value = ttl.trim();
+            if (value.isEmpty()) continue;
+            String[] parts = value.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("fiscal.response-cache.ttl-seconds inválido (use SERVICO:SEGUNDOS): " + value);
+            }
+            ttlNanosPorServico.put(parts[0].trim(), TimeUnit.SECONDS.toNanos(Long.parseLong(parts[1].trim())));
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResponseCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isCacheable(String servico) {
+        return ttlNanosPorServico.getOrDefault(servico, 0L) > 0;
+    }
+
+    /**
+     * Chave da consulta. O XML é normalizado (espaços entre tags removidos) para que a mesma
+     * consulta formatada de jeitos diferentes caia na mesma entrada.
+     */
+    public static String key(String servico, String modelo, String uf, String ambiente, String xml) {
+        Modelo resolvedModelo = Modelo.of(modelo);
+        Uf resolvedUf = Uf.of(uf);
+        Ambiente resolvedAmbiente = Ambiente.of(ambiente);
+        return servico
+                + '|' + (resolvedModelo != null ? resolvedModelo.name() : modelo)
+                + '|' + (resolvedUf != null ? resolvedUf.name() : uf)
+                + '|' + (resolvedAmbiente != null ? resolvedAmbiente.name() : ambiente)
+                + '|' + WHITESPACE_BETWEEN_TAGS.matcher(xml.trim()).replaceAll("><");
+    }
+
+    /**
+     * Resposta em cache para a chave ou, se não houver (ou {@code bypass}), a consulta feita por
+     * {@code request}, cujo resultado é guardado para as próximas.
+     */
+    public CompletableFuture<Result> get(String servico, String key, boolean bypass, Supplier<CompletableFuture<String>> request) {
+        if (bypass) {
+            bypasses.incrementAndGet();
+        } else {
+            Optional<Result> cached = lookup(key);
+            if (cached.isPresent()) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached.get());
+            }
+        }
+
+        // Consultas idênticas simultâneas aguardam a mesma requisição à SEFAZ
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = bypass ? null : inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            // Resposta da SEFAZ desta mesma rodada, não do cache: ageMs nulo
+            return existing.thenApply(responseBody -> new Result(responseBody, null));
+        }
+        if (!bypass) {
+            misses.incrementAndGet();
+        }
+
+        CompletableFuture<String> sent;
+        try {
+            sent = request.get();
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((responseBody, error) -> {
+            try {
+                if (error == null) {
+                    store(servico, key, responseBody);
+                }
+            } finally {
+                if (!bypass) {
+                    inFlight.remove(key, created);
+                }
+                if (error == null) {
+                    created.complete(responseBody);
+                } else {
+                    created.completeExceptionally(error);
+                }
+            }
+        });
+        return created.thenApply(responseBody -> new Result(responseBody, null));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        Map<String, Long> ttls = new LinkedHashMap<>();
+        ttlNanosPorServico.forEach((servico, ttl) -> ttls.put(servico, TimeUnit.NANOSECONDS.toSeconds(ttl)));
+        stats.put("ttlSeconds", ttls);
+        long hitCount = hits.get();
+        long coalescedCount = coalesced.get();
+        long missCount = misses.get();
+        stats.put("hits", hitCount);
+        stats.put("coalesced", coalescedCount);
+        stats.put("misses", missCount);
+        // Consultas agrupadas numa requisição já em andamento também não chegaram à SEFAZ
+        long served = hitCount + coalescedCount;
+        stats.put("hitRatio", served + missCount == 0 ? 0.0 : (double) served / (served + missCount));
+        stats.put("bypasses", bypasses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private Optional<Result> lookup(String key) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            long age = now - entry.storedAt();
+            if (age >= entry.ttlNanos()) {
+                entries.remove(key);
+                return Optional.empty();
+            }
+            return Optional.of(new Result(entry.responseBody(), TimeUnit.NANOSECONDS.toMillis(age)));
+        }
+    }
+
+    private void store(String servico, String key, String responseBody) {
+        long ttlNanos = ttlNanosPorServico.getOrDefault(servico, 0L);
+        if (ttlNanos <= 0 || responseBody == null) {
+            return;
+        }
+        // Sem cStat (fault, HTML) ou fora da faixa 1xx (rejeição): não guarda
+        String cStat = extrairCStat(responseBody);
+        if (cStat == null || cStat.charAt(0) != '1' || C_STAT_NAO_CACHEAVEIS.contains(cStat)) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(responseBody, System.nanoTime(), ttlNanos));
+        }
+    }
+
+    private static String extrairCStat(String responseBody) {
+        Matcher matcher = C_STAT.matcher(responseBody);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+}
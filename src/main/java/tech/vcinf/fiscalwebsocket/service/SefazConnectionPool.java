@@ -0,0 +1,273 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de conexões HTTPS persistentes (keep-alive) com os web services da SEFAZ.
+ *
+ * Cada emitente tem o seu {@link HttpClient} (java.net.http, não bloqueante) sobre o SSLContext mTLS
+ * do certificado, de modo que conexões autenticadas com um certificado nunca são reaproveitadas por
+ * outro emitente; o cliente mantém as conexões abertas entre requisições. No HTTP/1.1 cada requisição
+ * em andamento ocupa uma conexão, então o pool limita as requisições simultâneas por rota (emitente,
+ * host SEFAZ) e no total: as que passam do limite aguardam numa fila, sem ocupar thread, e saem
+ * quando uma conexão é liberada.
+ */
+@Service
+public class SefazConnectionPool {
+
+    // Propriedade do java.net.http (em segundos), lida uma vez pela JVM na criação do primeiro cliente
+    private static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    private final TlsSessionManager tlsSessionManager;
+    private final int maxConnectionsPerRoute;
+    private final int maxTotalConnections;
+    private final long idleTimeoutMs;
+    private final Duration connectTimeout;
+    private final ExecutorService executor;
+
+    // Clientes por CNPJ, com o SSLContext de origem; substituídos quando o certificado é recarregado
+    private final Map<String, Cliente> clientes = new ConcurrentHashMap<>();
+
+    // Rotas "<cnpj>@<host>:<porta>" e as que têm requisições aguardando, na ordem de chegada (guardadas por rotas)
+    private final Map<String, Rota> rotas = new HashMap<>();
+    private final Set<Rota> rotasAguardando = new LinkedHashSet<>();
+    private int emUso;
+
+    public SefazConnectionPool(TlsSessionManager tlsSessionManager,
+                               @Value("${fiscal.execution-mode:platform}") String executionMode,
+                               @Value("${sefaz.async.threads:4}") int asyncThreads,
+                               @Value("${sefaz.http.max-connections-per-route:4}") int maxConnectionsPerRoute,
+                               @Value("${sefaz.http.max-total-connections:200}") int maxTotalConnections,
+                               @Value("${sefaz.http.connection-timeout-ms:10000}") long connectionTimeoutMs,
+                               @Value("${sefaz.http.idle-timeout-ms:60000}") long idleTimeoutMs) {
+        this.tlsSessionManager = tlsSessionManager;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.maxTotalConnections = maxTotalConnections;
+        this.connectTimeout = Duration.ofMillis(connectionTimeoutMs);
+
+        // Conexões ociosas são fechadas pelo próprio java.net.http; o prazo vale para a JVM inteira
+        String keepAlive = System.getProperty(KEEP_ALIVE_PROPERTY);
+        if (keepAlive == null) {
+            System.setProperty(KEEP_ALIVE_PROPERTY, String.valueOf(Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(idleTimeoutMs))));
+            this.idleTimeoutMs = idleTimeoutMs;
+        } else {
+            System.err.println("AVISO: " + KEEP_ALIVE_PROPERTY + "=" + keepAlive + " já definido; sefaz.http.idle-timeout-ms ignorado");
+            this.idleTimeoutMs = TimeUnit.SECONDS.toMillis(Long.parseLong(keepAlive.trim()));
+        }
+
+        // Executor compartilhado por todos os clientes para completar as respostas; as threads
+        // só processam respostas já recebidas, nunca ficam paradas aguardando a SEFAZ
+        if ("virtual".equalsIgnoreCase(executionMode)) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sefaz-async-vt-", 0).factory());
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(asyncThreads, runnable -> {
+                Thread thread = new Thread(runnable, "sefaz-async-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Envia a requisição pelo cliente do emitente assim que houver conexão livre na rota e no pool.
+     */
+    public CompletableFuture<HttpResponse<String>> send(String cnpj, SSLContext sslContext, HttpRequest request) {
+        URI uri = request.uri();
+        int port = uri.getPort() != -1 ? uri.getPort() : 443;
+        String routeKey = cnpj + "@" + uri.getHost() + ":" + port;
+
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        synchronized (rotas) {
+            Rota rota = rotas.computeIfAbsent(routeKey, Rota::new);
+            rota.requests++;
+            rota.pendentes.add(() -> enviar(rota, cnpj, sslContext, request, result));
+            rotasAguardando.add(rota);
+        }
+        despachar();
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxConnectionsPerRoute", maxConnectionsPerRoute);
+        stats.put("maxTotalConnections", maxTotalConnections);
+        stats.put("idleTimeoutMs", idleTimeoutMs);
+        stats.put("clients", clientes.size());
+
+        Map<String, Object> perRoute = new LinkedHashMap<>();
+        int queued = 0;
+        synchronized (rotas) {
+            stats.put("connectionsInUse", emUso);
+            for (Rota rota : rotas.values()) {
+                Map<String, Object> routeStats = new LinkedHashMap<>();
+                routeStats.put("connectionsInUse", rota.emUso);
+                routeStats.put("queued", rota.pendentes.size());
+                routeStats.put("requests", rota.requests);
+                perRoute.put(rota.key, routeStats);
+                queued += rota.pendentes.size();
+            }
+        }
+        stats.put("queued", queued);
+        stats.put("routes", perRoute);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clientes.values().forEach(cliente -> cliente.httpClient.shutdownNow());
+        executor.shutdown();
+    }
+
+    private void enviar(Rota rota, String cnpj, SSLContext sslContext, HttpRequest request,
+                        CompletableFuture<HttpResponse<String>> result) {
+        CompletableFuture<HttpResponse<String>> sent;
+        Cliente cliente = null;
+        try {
+            cliente = adquirir(cnpj, sslContext);
+            sent = cliente.httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        Cliente usado = cliente;
+        sent.whenComplete((response, error) -> {
+            if (usado != null) {
+                liberar(usado);
+            }
+            // Conexão devolvida ao pool: libera a vaga antes de entregar a resposta
+            synchronized (rotas) {
+                rota.emUso--;
+                emUso--;
+            }
+            despachar();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
+            }
+        });
+    }
+
+    /**
+     * Inicia as requisições que aguardam enquanto houver vaga, alternando entre as rotas.
+     */
+    private void despachar() {
+        while (true) {
+            Runnable proxima = null;
+            synchronized (rotas) {
+                if (emUso >= maxTotalConnections) {
+                    return;
+                }
+                for (Iterator<Rota> it = rotasAguardando.iterator(); it.hasNext(); ) {
+                    Rota rota = it.next();
+                    if (rota.emUso >= maxConnectionsPerRoute) {
+                        continue;
+                    }
+                    proxima = rota.pendentes.poll();
+                    rota.emUso++;
+                    emUso++;
+                    // Rota vai para o fim da fila (ou sai dela, se não há mais pendentes)
+                    it.remove();
+                    if (!rota.pendentes.isEmpty()) {
+                        rotasAguardando.add(rota);
+                    }
+                    break;
+                }
+            }
+            if (proxima == null) {
+                return;
+            }
+            proxima.run();
+        }
+    }
+
+    /**
+     * Cliente atual do emitente, com uma requisição a mais contada como em andamento.
+     */
+    private Cliente adquirir(String cnpj, SSLContext sslContext) {
+        return clientes.compute(cnpj, (key, cliente) -> {
+            if (cliente != null && cliente.sslContext == sslContext) {
+                cliente.emUso.incrementAndGet();
+                return cliente;
+            }
+            // Certificado recarregado: o cliente anterior é encerrado assim que as suas requisições terminarem
+            if (cliente != null) {
+                cliente.substituido = true;
+                if (cliente.emUso.get() == 0) {
+                    encerrar(key, cliente);
+                }
+            }
+            Cliente novo = new Cliente(sslContext, HttpClient.newBuilder()
+                    .sslContext(sslContext)
+                    .sslParameters(tlsSessionManager.getSslParameters(sslContext))
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(connectTimeout)
+                    .executor(executor)
+                    .build());
+            novo.emUso.incrementAndGet();
+            return novo;
+        });
+    }
+
+    private void liberar(Cliente cliente) {
+        if (cliente.emUso.decrementAndGet() == 0 && cliente.substituido) {
+            encerrar(null, cliente);
+        }
+    }
+
+    // Fecha as conexões e a thread de seleção do cliente; chamado uma ou mais vezes (shutdown é idempotente)
+    private void encerrar(String cnpj, Cliente cliente) {
+        cliente.httpClient.shutdown();
+        if (cnpj != null) {
+            System.out.println("Cliente HTTP anterior do CNPJ " + cnpj + " encerrado (certificado recarregado)");
+        }
+    }
+
+    private static class Cliente {
+        private final SSLContext sslContext;
+        private final HttpClient httpClient;
+        // Requisições em andamento; um cliente substituído só é encerrado quando chega a zero
+        private final AtomicInteger emUso = new AtomicInteger();
+        private volatile boolean substituido;
+
+        private Cliente(SSLContext sslContext, HttpClient httpClient) {
+            this.sslContext = sslContext;
+            this.httpClient = httpClient;
+        }
+    }
+
+    private static class Rota {
+        private final String key;
+        private final Deque<Runnable> pendentes = new ArrayDeque<>();
+        private int emUso;
+        private long requests;
+
+        private Rota(String key) {
+            this.key = key;
+        }
+    }
+}
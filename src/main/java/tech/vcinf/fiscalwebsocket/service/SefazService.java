@@ -1,69 +1,77 @@
 package tech.vcinf.fiscalwebsocket.service;
 
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.protocol.Protocol;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import tech.vcinf.fiscalwebsocket.model.Emitente;
+import tech.vcinf.fiscalwebsocket.util.SoapEnvelope;
 import tech.vcinf.fiscalwebsocket.util.SoapEnvelopeUtils;
 
-import java.io.IOException;
 import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class SefazService {
 
     private final SefazProtocolFactory protocolFactory;
+    private final SefazConnectionPool connectionPool;
+    private final TlsSessionManager tlsSessionManager;
+    private final Duration requestTimeout;
 
-    public SefazService(SefazProtocolFactory protocolFactory) {
+    public SefazService(SefazProtocolFactory protocolFactory,
+                        SefazConnectionPool connectionPool,
+                        TlsSessionManager tlsSessionManager,
+                        @Value("${sefaz.http.so-timeout-ms:60000}") long requestTimeoutMs) {
         this.protocolFactory = protocolFactory;
+        this.connectionPool = connectionPool;
+        this.tlsSessionManager = tlsSessionManager;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
     }
 
-    public String send(String url, String xml, Emitente emitente, String servico) throws Exception {
-        PostMethod postMethod = null;
-        try {
-            // 1. Obter o Protocol customizado
-            Protocol protocol = protocolFactory.getProtocol(emitente);
-
-            // 2. Criar envelope SOAP
-            String soapXml = SoapEnvelopeUtils.createEnvelope(xml, servico, emitente.getUf());
-
-            // 3. Extrair host e path da URL
-            URI uri = URI.create(url);
-            String host = uri.getHost();
-            String path = uri.getPath() + (uri.getQuery() != null ? "?" + uri.getQuery() : "");
+    /**
+     * Envia o XML à SEFAZ sem bloquear: a requisição é escrita e a resposta lida via NIO,
+     * sem manter uma thread parada durante a espera pela SEFAZ.
+     */
+    public CompletableFuture<String> sendAsync(String url, String xml, Emitente emitente, String servico) {
+        return sendAsync(url, xml, emitente, "NFE", servico);
+    }
 
-            // 4. Configurar HttpClient
-            HttpClient httpClient = new HttpClient();
-            httpClient.getHostConfiguration().setHost(host, 443, protocol);
+    public CompletableFuture<String> sendAsync(String url, String xml, Emitente emitente, String modelo, String servico) {
+        try {
+            // 1. Obter o envelope SOAP pré-renderizado do serviço
+            SoapEnvelope envelope = SoapEnvelopeUtils.getEnvelope(modelo, servico, emitente.getUf(), xml);
 
-            // 5. Criar método POST
-            postMethod = new PostMethod(path);
-            postMethod.setRequestHeader("Content-Type", "application/soap+xml; charset=utf-8");
-            postMethod.setRequestBody(soapXml);
+            // 2. Criar requisição POST; o XML é publicado entre o prefixo e o sufixo do envelope
+            HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(requestTimeout)
+                    .header("Content-Type", SoapEnvelope.CONTENT_TYPE)
+                    .POST(envelope.toBodyPublisher(xml))
+                    .build();
 
-            // 6. Executar requisição
-            // O HttpClient gerencia códigos de status HTTP, lançando exceções para erros de servidor (5xx) ou cliente (4xx)
-            // se a propriedade http.protocol.strict-rect-auth estiver ativada (padrão).
-            // Portanto, um código de sucesso (2xx) simplesmente continua.
-            int statusCode = httpClient.executeMethod(postMethod);
+            // 3. Executar requisição de forma assíncrona pelo pool, com o SSLContext mTLS do emitente
+            return connectionPool.send(emitente.getCnpj(), protocolFactory.getSslContext(emitente), httpRequest)
+                    .handle((response, error) -> {
+                        if (error != null) {
+                            System.err.println("Erro de I/O ao comunicar com a SEFAZ: " + error.getMessage());
+                            throw new RuntimeException("Erro de rede ao conectar com a SEFAZ.", error);
+                        }
+                        tlsSessionManager.recordRequest(httpRequest.uri().getHost());
+                        System.out.println("Status da Resposta: " + response.statusCode());
+                        return response.body();
+                    });
 
-            String responseBody = postMethod.getResponseBodyAsString();
-            
-            System.out.println("Status da Resposta: " + statusCode);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-            // 7. Retornar a resposta
-            return responseBody;
+    public Map<String, Object> getPoolStats() {
+        return connectionPool.getStats();
+    }
 
-        } catch (IOException e) {
-            // Log de erro de rede
-            System.err.println("Erro de I/O ao comunicar com a SEFAZ: " + e.getMessage());
-            throw new Exception("Erro de rede ao conectar com a SEFAZ.", e);
-        } finally {
-            // 8. Liberar a conexão para que possa ser reutilizada
-            if (postMethod != null) {
-                postMethod.releaseConnection();
-            }
-        }
+    public Map<String, Object> getTlsStats() {
+        return tlsSessionManager.getStats();
     }
 }
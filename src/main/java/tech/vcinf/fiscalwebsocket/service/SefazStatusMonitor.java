@@ -0,0 +1,248 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.builder.XmlBuilder;
+import tech.vcinf.fiscalwebsocket.dto.SefazStatusInfo;
+import tech.vcinf.fiscalwebsocket.model.Emitente;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Ambiente;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Modelo;
+import tech.vcinf.fiscalwebsocket.service.EndpointRegistry.Servico;
+import tech.vcinf.fiscalwebsocket.util.Uf;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Monitor de disponibilidade dos web services da SEFAZ.
+ *
+ * Consulta o STATUS de cada (modelo, UF, ambiente) configurado numa cadência fixa, com um
+ * certificado designado por UF, e guarda o último resultado (cStat, xMotivo, tMed, latência).
+ * As requisições STATUS dos clientes são respondidas com esse resultado enquanto ele estiver
+ * dentro do limite de idade, de modo que N clientes consultando viram uma consulta por UF.
+ * Mudanças de situação são publicadas em /topic/sefaz-status.
+ */
+@Service
+public class SefazStatusMonitor {
+
+    public static final String TOPIC = "/topic/sefaz-status";
+
+    // cStat 107: Serviço em Operação
+    private static final String C_STAT_EM_OPERACAO = "107";
+
+    private static final Pattern C_STAT = Pattern.compile("<(?:\\w+:)?cStat>(\\d{3})</(?:\\w+:)?cStat>");
+    private static final Pattern X_MOTIVO = Pattern.compile("<(?:\\w+:)?xMotivo>([^<]*)</(?:\\w+:)?xMotivo>");
+    private static final Pattern T_MED = Pattern.compile("<(?:\\w+:)?tMed>(\\d+)</(?:\\w+:)?tMed>");
+
+    private static final Uf[] UFS = Uf.values();
+    private static final Ambiente[] AMBIENTES = Ambiente.values();
+
+    private final EmitenteCache emitenteCache;
+    private final EndpointRegistry endpointRegistry;
+    private final SefazService sefazService;
+    private final XmlBuilder statusBuilder;
+    private final SimpMessageSendingOperations messagingTemplate;
+
+    private final Map<Uf, String> certificadosPorUf = new EnumMap<>(Uf.class);
+    private final List<Modelo> modelos = new ArrayList<>();
+    private final List<Ambiente> ambientes = new ArrayList<>();
+    private final long maxAgeNanos;
+
+    // Último resultado por (modelo, UF, ambiente)
+    private final AtomicReferenceArray<Entry> entries =
+            new AtomicReferenceArray<>(Modelo.values().length * UFS.length * AMBIENTES.length);
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong pollFailures = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong changesPublished = new AtomicLong();
+
+    /**
+     * Resultado de uma consulta. {@code xmlResposta} é nulo quando a consulta falhou.
+     */
+    private record Entry(SefazStatusInfo status, String xmlResposta, long checkedAtNanos, boolean inFlight) {}
+
+    /**
+     * Resposta STATUS em cache, com a sua idade.
+     */
+    public record CachedStatus(String xmlResposta, long ageMs) {}
+
+    public SefazStatusMonitor(EmitenteCache emitenteCache,
+                              EndpointRegistry endpointRegistry,
+                              SefazService sefazService,
+                              Map<String, XmlBuilder> xmlBuilders,
+                              SimpMessageSendingOperations messagingTemplate,
+                              @Value("${fiscal.status-monitor.certificados:}") String[] certificados,
+                              @Value("${fiscal.status-monitor.modelos:NFE,NFCE}") String[] modelos,
+                              @Value("${fiscal.status-monitor.ambientes:PROD}") String[] ambientes,
+                              @Value("${fiscal.status-monitor.max-age-ms:180000}") long maxAgeMs) {
+        this.emitenteCache = emitenteCache;
+        this.endpointRegistry = endpointRegistry;
+        this.sefazService = sefazService;
+        this.statusBuilder = xmlBuilders.get(Servico.STATUS.name());
+        this.messagingTemplate = messagingTemplate;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+
+        // Formato UF:CNPJ, ex.: MT:12345678000199
+        for (String certificado : certificados) {
+            String value = certificado.trim();
+            if (value.isEmpty()) continue;
+            String[] parts = value.split(":");
+            Uf uf = parts.length == 2 ? Uf.of(parts[0].trim()) : null;
+            if (uf == null) {
+                throw new IllegalArgumentException("fiscal.status-monitor.certificados inválido (use UF:CNPJ): " + value);
+            }
+            certificadosPorUf.put(uf, parts[1].trim());
+        }
+        for (String modelo : modelos) {
+            this.modelos.add(Objects.requireNonNull(Modelo.of(modelo), () -> "Modelo desconhecido: " + modelo));
+        }
+        for (String ambiente : ambientes) {
+            this.ambientes.add(Objects.requireNonNull(Ambiente.of(ambiente), () -> "Ambiente desconhecido: " + ambiente));
+        }
+    }
+
+    /**
+     * Dispara a consulta de todas as combinações configuradas. Uma combinação cuja consulta
+     * anterior ainda não terminou é pulada neste ciclo.
+     */
+    @Scheduled(fixedDelayString = "${fiscal.status-monitor.interval-ms:60000}",
+            initialDelayString = "${fiscal.status-monitor.initial-delay-ms:5000}")
+    public void poll() {
+        certificadosPorUf.forEach((uf, cnpj) -> {
+            Optional<Emitente> emitente = emitenteCache.get(cnpj);
+            if (emitente.isEmpty()) {
+                System.err.println("AVISO: monitor de status sem emitente cadastrado para " + uf + " (CNPJ " + cnpj + ")");
+                return;
+            }
+            for (Modelo modelo : modelos) {
+                for (Ambiente ambiente : ambientes) {
+                    String url = endpointRegistry.getUrl(modelo, Servico.STATUS, uf, ambiente);
+                    if (url != null) {
+                        poll(emitente.get(), modelo, uf, ambiente, url);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Último STATUS da combinação, se a consulta mais recente teve resposta com cStat e está dentro do
+     * limite de idade. Respostas sem cStat (SOAP fault, página de erro) não são servidas: a requisição
+     * segue para a SEFAZ.
+     */
+    public Optional<CachedStatus> getFresh(String modelo, String uf, String ambiente) {
+        Modelo resolvedModelo = Modelo.of(modelo);
+        Uf resolvedUf = Uf.of(uf);
+        Ambiente resolvedAmbiente = Ambiente.of(ambiente);
+        Entry entry = resolvedModelo == null || resolvedUf == null || resolvedAmbiente == null ? null
+                : entries.get(index(resolvedModelo, resolvedUf, resolvedAmbiente));
+        long age = entry == null ? Long.MAX_VALUE : System.nanoTime() - entry.checkedAtNanos();
+        if (entry == null || entry.xmlResposta() == null || entry.status().getcStat() == null || age > maxAgeNanos) {
+            cacheMisses.incrementAndGet();
+            return Optional.empty();
+        }
+        cacheHits.incrementAndGet();
+        return Optional.of(new CachedStatus(entry.xmlResposta(), TimeUnit.NANOSECONDS.toMillis(age)));
+    }
+
+    /**
+     * Situação atual de todas as combinações já consultadas.
+     */
+    public List<SefazStatusInfo> getAll() {
+        List<SefazStatusInfo> all = new ArrayList<>();
+        for (int i = 0; i < entries.length(); i++) {
+            Entry entry = entries.get(i);
+            if (entry != null && entry.status() != null) {
+                all.add(entry.status());
+            }
+        }
+        return all;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("monitoredUfs", certificadosPorUf.keySet());
+        stats.put("polls", polls.get());
+        stats.put("pollFailures", pollFailures.get());
+        long hits = cacheHits.get();
+        long misses = cacheMisses.get();
+        stats.put("cacheHits", hits);
+        stats.put("cacheMisses", misses);
+        stats.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("changesPublished", changesPublished.get());
+        return stats;
+    }
+
+    private void poll(Emitente emitente, Modelo modelo, Uf uf, Ambiente ambiente, String url) {
+        String xml = statusBuilder.build(Map.of("modelo", modelo.name(), "ambiente", ambiente.getCodigo()),
+                emitente.getCnpj(), uf.name());
+        int index = index(modelo, uf, ambiente);
+        Entry previous = entries.get(index);
+        if (previous != null && previous.inFlight()) {
+            return;
+        }
+        Entry marked = previous != null
+                ? new Entry(previous.status(), previous.xmlResposta(), previous.checkedAtNanos(), true)
+                : new Entry(null, null, System.nanoTime() - maxAgeNanos - 1, true);
+        if (!entries.compareAndSet(index, previous, marked)) {
+            return;
+        }
+
+        polls.incrementAndGet();
+        long start = System.nanoTime();
+        sefazService.sendAsync(url, xml, emitente, modelo.name(), Servico.STATUS.name())
+                .whenComplete((responseBody, error) -> {
+                    long now = System.nanoTime();
+                    long latencyMs = TimeUnit.NANOSECONDS.toMillis(now - start);
+                    SefazStatusInfo status;
+                    if (error != null || responseBody == null) {
+                        pollFailures.incrementAndGet();
+                        String motivo = error != null ? error.getMessage() : "Resposta vazia";
+                        status = new SefazStatusInfo(modelo.name(), uf.name(), ambiente.name(), false, null, motivo,
+                                null, latencyMs, LocalDateTime.now());
+                        responseBody = null;
+                    } else {
+                        String cStat = extrair(C_STAT, responseBody);
+                        String tMed = extrair(T_MED, responseBody);
+                        status = new SefazStatusInfo(modelo.name(), uf.name(), ambiente.name(),
+                                C_STAT_EM_OPERACAO.equals(cStat), cStat, extrair(X_MOTIVO, responseBody),
+                                tMed != null ? Integer.valueOf(tMed) : null, latencyMs, LocalDateTime.now());
+                    }
+                    entries.set(index, new Entry(status, responseBody, now, false));
+
+                    // Publica apenas quando a situação muda (disponibilidade ou cStat)
+                    SefazStatusInfo anterior = marked.status();
+                    if (anterior == null || anterior.isDisponivel() != status.isDisponivel()
+                            || !Objects.equals(anterior.getcStat(), status.getcStat())) {
+                        changesPublished.incrementAndGet();
+                        System.out.println("Status SEFAZ " + modelo + "/" + uf + "/" + ambiente + ": "
+                                + status.getcStat() + " - " + status.getxMotivo());
+                        messagingTemplate.convertAndSend(TOPIC, status);
+                    }
+                });
+    }
+
+    private static String extrair(Pattern pattern, String xml) {
+        Matcher matcher = pattern.matcher(xml);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static int index(Modelo modelo, Uf uf, Ambiente ambiente) {
+        return (modelo.ordinal() * UFS.length + uf.ordinal()) * AMBIENTES.length + ambiente.ordinal();
+    }
+}
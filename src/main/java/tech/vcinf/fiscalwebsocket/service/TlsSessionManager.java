@@ -0,0 +1,141 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.util.SocketFactoryDinamico;
+import tech.vcinf.fiscalwebsocket.util.SslContextMonitorado;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManager;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Camada TLS gerenciada para as conexões com a SEFAZ.
+ *
+ * Cria os SSLContext dos emitentes com cache de sessões dimensionado explicitamente, para que
+ * reconexões ao mesmo host retomem a sessão (abbreviated handshake) em vez de refazer o handshake
+ * completo com verificação de certificados. Também centraliza os protocolos e cipher suites
+ * permitidos e contabiliza, por host, as conexões novas (handshake completo ou sessão retomada) e
+ * as requisições atendidas em conexões já abertas (keep-alive).
+ */
+@Service
+public class TlsSessionManager {
+
+    private static final String CONTEXT_PROTOCOL = "TLS";
+
+    private final String[] protocols;
+    private final String[] cipherSuites;
+    private final int sessionCacheSize;
+    private final int sessionTimeoutSeconds;
+
+    private final Map<String, HostStats> statsPerHost = new ConcurrentHashMap<>();
+
+    public TlsSessionManager(@Value("${sefaz.tls.protocols:TLSv1.2}") String[] protocols,
+                             @Value("${sefaz.tls.cipher-suites:}") String[] cipherSuites,
+                             @Value("${sefaz.tls.session-cache-size:1000}") int sessionCacheSize,
+                             @Value("${sefaz.tls.session-timeout-seconds:86400}") int sessionTimeoutSeconds) {
+        this.protocols = normalize(protocols);
+        this.cipherSuites = normalize(cipherSuites);
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+    }
+
+    /**
+     * Cria o SSLContext mTLS de um emitente com o cache de sessões configurado. O contexto é
+     * compartilhado por todos os hosts SEFAZ.
+     */
+    public SSLContext createContext(KeyStore keyStore, String senha, KeyStore cacert) throws Exception {
+        return configure(SocketFactoryDinamico.createSslContext(keyStore, senha, cacert, CONTEXT_PROTOCOL));
+    }
+
+    public SSLContext createContext(KeyManager[] keyManagers, TrustManager[] trustManagers) throws Exception {
+        return configure(SocketFactoryDinamico.createSslContext(keyManagers, trustManagers, CONTEXT_PROTOCOL));
+    }
+
+    private SSLContext configure(SSLContext sslContext) {
+        sslContext.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+        sslContext.getClientSessionContext().setSessionTimeout(sessionTimeoutSeconds);
+        // Cada conexão nova informa o seu handshake
+        return new SslContextMonitorado(sslContext, this::recordHandshake);
+    }
+
+    /**
+     * Parâmetros TLS (protocolos e cipher suites fixados) aplicados a todo socket/engine criado.
+     * Valores não configurados mantêm o padrão do contexto.
+     */
+    public SSLParameters getSslParameters(SSLContext sslContext) {
+        SSLParameters parameters = sslContext.getDefaultSSLParameters();
+        if (protocols != null) {
+            parameters.setProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            parameters.setCipherSuites(cipherSuites);
+        }
+        return parameters;
+    }
+
+    /**
+     * Registra o handshake de uma conexão nova: {@code resumed} indica que a sessão foi retomada do cache.
+     */
+    public void recordHandshake(String host, boolean resumed) {
+        HostStats stats = statsPerHost.computeIfAbsent(host, h -> new HostStats());
+        if (resumed) {
+            stats.resumedHandshakes.incrementAndGet();
+        } else {
+            stats.fullHandshakes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Registra uma resposta recebida do host, em conexão nova ou reaproveitada.
+     */
+    public void recordRequest(String host) {
+        statsPerHost.computeIfAbsent(host, h -> new HostStats()).requests.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("protocols", protocols != null ? Arrays.asList(protocols) : "default");
+        stats.put("cipherSuites", cipherSuites != null ? Arrays.asList(cipherSuites) : "default");
+        stats.put("sessionCacheSize", sessionCacheSize);
+        stats.put("sessionTimeoutSeconds", sessionTimeoutSeconds);
+
+        Map<String, Object> perHost = new LinkedHashMap<>();
+        statsPerHost.forEach((host, hostStats) -> {
+            long full = hostStats.fullHandshakes.get();
+            long resumed = hostStats.resumedHandshakes.get();
+            Map<String, Object> hostMap = new LinkedHashMap<>();
+            hostMap.put("fullHandshakes", full);
+            hostMap.put("resumedHandshakes", resumed);
+            hostMap.put("resumptionRatio", full + resumed == 0 ? 0.0 : (double) resumed / (full + resumed));
+            long requests = hostStats.requests.get();
+            hostMap.put("requests", requests);
+            // Respostas além das conexões abertas vieram de conexões keep-alive, sem handshake
+            hostMap.put("keepAliveReuses", Math.max(0L, requests - full - resumed));
+            perHost.put(host, hostMap);
+        });
+        stats.put("hosts", perHost);
+        return stats;
+    }
+
+    private static String[] normalize(String[] values) {
+        if (values == null) {
+            return null;
+        }
+        String[] trimmed = Arrays.stream(values).map(String::trim).filter(v -> !v.isEmpty()).toArray(String[]::new);
+        return trimmed.length == 0 ? null : trimmed;
+    }
+
+    private static class HostStats {
+        private final AtomicLong fullHandshakes = new AtomicLong();
+        private final AtomicLong resumedHandshakes = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+    }
+}
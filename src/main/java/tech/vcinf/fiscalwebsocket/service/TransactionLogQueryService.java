@@ -0,0 +1,177 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.dto.TransactionLogInfo;
+import tech.vcinf.fiscalwebsocket.model.TransactionLog;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Consulta dos logs de transação com paginação por chave (data, id) em ordem decrescente.
+ *
+ * Cada página é uma consulta com limite própria, posicionada pelo cursor da anterior, de modo que
+ * nem o banco nem a aplicação materializam o resultado inteiro; o custo de uma página não cresce
+ * com a profundidade, ao contrário de OFFSET. Só os filtros informados entram no WHERE, para que
+ * o banco use o índice composto correspondente.
+ *
+ * As páginas projetam só as colunas de metadados em {@link TransactionLogInfo}: os XMLs (BLOBs
+ * compactados, colunas legadas ou ponteiros do PayloadStore) são lidos apenas quando
+ * {@code includeXml} é pedido, numa segunda consulta restrita aos ids da página.
+ */
+@Service
+public class TransactionLogQueryService {
+
+    private final EntityManager entityManager;
+    private final PayloadStore payloadStore;
+    private final int maxPageSize;
+    private final int maxPages;
+
+    public TransactionLogQueryService(EntityManager entityManager,
+                                      PayloadStore payloadStore,
+                                      @Value("${fiscal.transaction-log.query.max-page-size:500}") int maxPageSize,
+                                      @Value("${fiscal.transaction-log.query.max-pages:10}") int maxPages) {
+        this.entityManager = entityManager;
+        this.payloadStore = payloadStore;
+        this.maxPageSize = maxPageSize;
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Filtros da consulta; campos nulos são ignorados. {@code cursor} é o {@code nextCursor} da página anterior.
+     */
+    public record Filtro(String cnpj, String servico, String chaveAcesso, String cStat, Integer statusHttp,
+                         LocalDateTime dataInicio, LocalDateTime dataFim, String cursor, int pageSize, boolean includeXml) {}
+
+    /**
+     * Lê as páginas em sequência, entregando cada uma a {@code onPage}, até acabar o resultado ou
+     * atingir {@code maxPages}, limitado a {@code fiscal.transaction-log.query.max-pages}. Retorna o
+     * cursor para continuar (nulo se não há mais registros).
+     */
+    public String stream(Filtro filtro, int maxPages, Consumer<Map<String, Object>> onPage) {
+        String cursor = filtro.cursor();
+        int pages = Math.max(1, Math.min(maxPages, this.maxPages));
+        for (int page = 1; page <= pages; page++) {
+            List<TransactionLogInfo> items = fetchPage(filtro, cursor);
+            int pageSize = pageSize(filtro);
+            boolean hasMore = items.size() > pageSize;
+            if (hasMore) {
+                items = new ArrayList<>(items.subList(0, pageSize));
+            }
+            if (filtro.includeXml()) {
+                loadXml(items);
+            }
+            cursor = hasMore ? toCursor(items.get(items.size() - 1)) : null;
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("page", page);
+            body.put("items", items);
+            body.put("hasMore", hasMore);
+            body.put("nextCursor", cursor);
+            onPage.accept(body);
+
+            if (!hasMore) {
+                break;
+            }
+        }
+        return cursor;
+    }
+
+    private List<TransactionLogInfo> fetchPage(Filtro filtro, String cursor) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TransactionLogInfo> query = cb.createQuery(TransactionLogInfo.class);
+        Root<TransactionLog> root = query.from(TransactionLog.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (filtro.cnpj() != null) {
+            predicates.add(cb.equal(root.get("cnpj"), filtro.cnpj()));
+        }
+        if (filtro.servico() != null) {
+            predicates.add(cb.equal(root.get("servico"), filtro.servico()));
+        }
+        if (filtro.chaveAcesso() != null) {
+            predicates.add(cb.equal(root.get("chaveAcesso"), filtro.chaveAcesso()));
+        }
+        if (filtro.cStat() != null) {
+            predicates.add(cb.equal(root.get("cStat"), filtro.cStat()));
+        }
+        if (filtro.statusHttp() != null) {
+            predicates.add(cb.equal(root.get("statusHttp"), filtro.statusHttp()));
+        }
+        if (filtro.dataInicio() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(root.get("data"), filtro.dataInicio()));
+        }
+        if (filtro.dataFim() != null) {
+            predicates.add(cb.lessThan(root.get("data"), filtro.dataFim()));
+        }
+        if (cursor != null) {
+            // (data, id) < (dataCursor, idCursor)
+            int separator = cursor.lastIndexOf('_');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Cursor inválido: " + cursor);
+            }
+            LocalDateTime cursorData = LocalDateTime.parse(cursor.substring(0, separator));
+            Long cursorId = Long.valueOf(cursor.substring(separator + 1));
+            predicates.add(cb.or(
+                    cb.lessThan(root.get("data"), cursorData),
+                    cb.and(cb.equal(root.get("data"), cursorData), cb.lessThan(root.get("id"), cursorId))));
+        }
+
+        // Só os metadados: nem os BLOBs compactados nem as colunas TEXT legadas entram no SELECT
+        query.select(cb.construct(TransactionLogInfo.class, root.get("id"), root.get("cnpj"), root.get("servico"),
+                        root.get("chaveAcesso"), root.get("cStat"), root.get("statusHttp"), root.get("data")))
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(cb.desc(root.get("data")), cb.desc(root.get("id")));
+
+        // Um registro a mais indica se existe próxima página, sem COUNT
+        return entityManager.createQuery(query)
+                .setMaxResults(pageSize(filtro) + 1)
+                .getResultList();
+    }
+
+    /**
+     * Lê os XMLs dos registros da página numa única consulta pelos ids.
+     */
+    private void loadXml(List<TransactionLogInfo> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(items.size());
+        for (TransactionLogInfo info : items) {
+            ids.add(info.getId());
+        }
+        Map<Long, TransactionLog> logs = new HashMap<>();
+        for (TransactionLog log : entityManager
+                .createQuery("SELECT t FROM TransactionLog t WHERE t.id IN :ids", TransactionLog.class)
+                .setParameter("ids", ids)
+                .getResultList()) {
+            logs.put(log.getId(), log);
+        }
+        for (TransactionLogInfo info : items) {
+            TransactionLog log = logs.get(info.getId());
+            if (log != null) {
+                info.setXmlEnviado(payloadStore.readXmlEnviado(log));
+                info.setXmlResposta(payloadStore.readXmlResposta(log));
+            }
+        }
+    }
+
+    private int pageSize(Filtro filtro) {
+        return Math.max(1, Math.min(filtro.pageSize(), maxPageSize));
+    }
+
+    private static String toCursor(TransactionLogInfo info) {
+        return info.getData() + "_" + info.getId();
+    }
+}
@@ -0,0 +1,304 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.model.TransactionLog;
+import tech.vcinf.fiscalwebsocket.repository.TransactionLogRepository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gravação assíncrona (write-behind) dos logs de transação.
+ *
+ * Os logs entram numa fila limitada e uma thread dedicada os grava em lotes com {@code saveAll},
+ * numa única transação, aproveitando o batch JDBC do Hibernate. Um lote que falha é tentado de novo
+ * até {@code retry-attempts} vezes e, persistindo a falha, os registros são gravados um a um, de modo
+ * que um registro ruim não descarta os demais. Com o {@link PayloadStore} habilitado,
+ * os XMLs do lote são antes anexados aos segmentos e o banco recebe só os ponteiros. A resposta ao cliente não espera
+ * o banco. No desligamento a fila é esvaziada antes de o repositório ser destruído.
+ *
+ * Política com a fila cheia ({@code fiscal.transaction-log.overflow-policy}):
+ * <ul>
+ *   <li>{@code block}: aguarda até {@code offer-timeout-ms} e, se ainda cheia, grava de forma síncrona (sem perda);</li>
+ *   <li>{@code drop-newest}: descarta o log recebido;</li>
+ *   <li>{@code drop-oldest}: descarta o log mais antigo da fila para abrir espaço.</li>
+ * </ul>
+ */
+@Service
+public class TransactionLogWriter {
+
+    private final TransactionLogRepository transactionLogRepository;
+    private final PayloadStore payloadStore;
+    private final BlockingQueue<TransactionLog> queue;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final String overflowPolicy;
+    private final long offerTimeoutMs;
+    private final long shutdownTimeoutMs;
+    private final int retryAttempts;
+    private final long retryBackoffMs;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenSynchronously = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rowFallbacks = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushNanosTotal = new AtomicLong();
+    private final AtomicLong flushNanosMax = new AtomicLong();
+
+    public TransactionLogWriter(TransactionLogRepository transactionLogRepository,
+                                PayloadStore payloadStore,
+                                @Value("${fiscal.transaction-log.queue-capacity:10000}") int queueCapacity,
+                                @Value("${fiscal.transaction-log.batch-size:50}") int batchSize,
+                                @Value("${fiscal.transaction-log.flush-interval-ms:200}") long flushIntervalMs,
+                                @Value("${fiscal.transaction-log.overflow-policy:block}") String overflowPolicy,
+                                @Value("${fiscal.transaction-log.offer-timeout-ms:1000}") long offerTimeoutMs,
+                                @Value("${fiscal.transaction-log.shutdown-timeout-ms:10000}") long shutdownTimeoutMs,
+                                @Value("${fiscal.transaction-log.retry-attempts:3}") int retryAttempts,
+                                @Value("${fiscal.transaction-log.retry-backoff-ms:100}") long retryBackoffMs) {
+        this.transactionLogRepository = transactionLogRepository;
+        this.payloadStore = payloadStore;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.overflowPolicy = overflowPolicy.trim().toLowerCase();
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.retryAttempts = Math.max(1, retryAttempts);
+        this.retryBackoffMs = retryBackoffMs;
+        if (!List.of("block", "drop-newest", "drop-oldest").contains(this.overflowPolicy)) {
+            throw new IllegalArgumentException("Política de fila cheia inválida: " + overflowPolicy);
+        }
+
+        this.writerThread = new Thread(this::run, "transaction-log-writer");
+        this.writerThread.start();
+    }
+
+    /**
+     * Enfileira o log para gravação. Só bloqueia o chamador com a fila cheia e a política {@code block}.
+     */
+    public void enqueue(TransactionLog log) {
+        if (!running) {
+            // Já em desligamento: grava direto para não perder o log
+            saveSynchronously(log);
+            return;
+        }
+        if (queue.offer(log)) {
+            enqueued.incrementAndGet();
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case "drop-newest" -> {
+                dropped.incrementAndGet();
+                System.err.println("Fila de logs de transação cheia: log descartado (cnpj " + log.getCnpj() + ")");
+            }
+            case "drop-oldest" -> {
+                while (!queue.offer(log)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                enqueued.incrementAndGet();
+                System.err.println("Fila de logs de transação cheia: log mais antigo descartado");
+            }
+            default -> {
+                try {
+                    if (queue.offer(log, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        enqueued.incrementAndGet();
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                saveSynchronously(log);
+            }
+        }
+    }
+
+    private void run() {
+        List<TransactionLog> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                TransactionLog first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // Interrompido no desligamento: o laço termina de esvaziar a fila
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<TransactionLog> batch) {
+        long start = System.nanoTime();
+        try {
+            // Cópia dos XMLs: se o lote não for gravado, os registros individuais voltam a levá-los
+            // no próprio registro em vez de depender de ponteiros que nenhum registro gravado referencia
+            List<String[]> inlineXml = new ArrayList<>(batch.size());
+            batch.forEach(log -> inlineXml.add(new String[]{log.getXmlEnviado(), log.getXmlResposta()}));
+            boolean externalized = false;
+            try {
+                externalizeXml(batch);
+                externalized = true;
+            } catch (Exception e) {
+                System.err.println("ERRO ao gravar XMLs no PayloadStore, mantendo-os no registro: " + e.getMessage());
+                restoreInlineXml(batch, inlineXml);
+            }
+            if (!saveBatch(batch)) {
+                if (externalized) {
+                    restoreInlineXml(batch, inlineXml);
+                }
+                saveRowByRow(batch);
+            }
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            System.err.println("ERRO ao gravar lote de " + batch.size() + " logs de transação: " + e.getMessage());
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            flushes.incrementAndGet();
+            flushNanosTotal.addAndGet(elapsed);
+            flushNanosMax.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    // saveAll com até retryAttempts tentativas; false se todas falharam
+    private boolean saveBatch(List<TransactionLog> batch) {
+        for (int attempt = 1; attempt <= retryAttempts; attempt++) {
+            try {
+                transactionLogRepository.saveAll(batch);
+                written.addAndGet(batch.size());
+                return true;
+            } catch (Exception e) {
+                System.err.println("ERRO ao gravar lote de " + batch.size() + " logs de transação (tentativa "
+                        + attempt + "/" + retryAttempts + "): " + e.getMessage());
+                // A transação desfeita deixou ids atribuídos: sem eles o registro volta a ser novo
+                batch.forEach(log -> log.setId(null));
+                if (attempt == retryAttempts) {
+                    break;
+                }
+                retries.incrementAndGet();
+                try {
+                    Thread.sleep(retryBackoffMs * attempt);
+                } catch (InterruptedException ie) {
+                    // Interrompido no desligamento: segue direto para a gravação individual, sem
+                    // manter a interrupção (que faria o JDBC falhar) e encerrando o laço como em run()
+                    running = false;
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Último recurso: cada registro na sua própria transação (com o XML no registro), isolando o que não pode ser gravado
+    private void saveRowByRow(List<TransactionLog> batch) {
+        rowFallbacks.incrementAndGet();
+        for (TransactionLog log : batch) {
+            try {
+                transactionLogRepository.save(log);
+                written.incrementAndGet();
+            } catch (Exception e) {
+                log.setId(null);
+                failed.incrementAndGet();
+                System.err.println("ERRO ao salvar log de transação (cnpj " + log.getCnpj() + "): " + e.getMessage());
+            }
+        }
+    }
+
+    // Os XMLs vão para os segmentos do PayloadStore, sincronizados antes de os ponteiros irem para o banco
+    private void externalizeXml(List<TransactionLog> logs) {
+        if (!payloadStore.isEnabled()) {
+            return;
+        }
+        logs.forEach(log -> log.externalizeXml(payloadStore::append));
+        payloadStore.sync();
+    }
+
+    private static void restoreInlineXml(List<TransactionLog> logs, List<String[]> inlineXml) {
+        for (int i = 0; i < logs.size(); i++) {
+            logs.get(i).restoreInlineXml(inlineXml.get(i)[0], inlineXml.get(i)[1]);
+        }
+    }
+
+    private void saveSynchronously(TransactionLog log) {
+        try {
+            externalizeXml(List.of(log));
+            transactionLogRepository.save(log);
+            writtenSynchronously.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.println("ERRO ao salvar log de transação: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            writerThread.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            writerThread.interrupt();
+            try {
+                // Aguarda o writer sair do flush em andamento antes de esvaziar a fila aqui
+                writerThread.join(shutdownTimeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writerThread.isAlive()) {
+                System.err.println("AVISO: writer de logs de transação não terminou em " + shutdownTimeoutMs + " ms");
+            }
+        }
+
+        // O que restou (writer travado ou interrompido) é gravado aqui antes do repositório ser destruído
+        List<TransactionLog> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+        System.out.println("Logs de transação gravados: " + written.get() + ", descartados: " + dropped.get() + ", falhas: " + failed.get());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("overflowPolicy", overflowPolicy);
+        stats.put("enqueued", enqueued.get());
+        stats.put("written", written.get());
+        stats.put("writtenSynchronously", writtenSynchronously.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failed", failed.get());
+        stats.put("retries", retries.get());
+        stats.put("rowFallbacks", rowFallbacks.get());
+        long flushCount = flushes.get();
+        stats.put("flushes", flushCount);
+        stats.put("avgFlushMs", flushCount == 0 ? 0.0 : flushNanosTotal.get() / 1_000_000.0 / flushCount);
+        stats.put("maxFlushMs", flushNanosMax.get() / 1_000_000.0);
+        return stats;
+    }
+}
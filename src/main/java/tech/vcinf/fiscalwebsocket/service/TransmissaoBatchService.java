@@ -0,0 +1,262 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.dto.FiscalRequest;
+import tech.vcinf.fiscalwebsocket.dto.FiscalResponse;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Execução de um lote de transmissões recebido num único frame.
+ *
+ * Os itens de cada emitente/UF entram numa fila própria e são despachados para o executor no
+ * máximo {@code fiscal.batch.parallelism-per-emitente} por vez, de modo que uma thread só é ocupada
+ * por um item que já pode transmitir e o lote grande de um emitente não segura as threads dos
+ * demais. O tamanho do lote e o total de itens pendentes são limitados: acima disso o lote é
+ * recusado ({@link TransmissaoPipeline.FilaCheiaException}). O lote só começa quando iniciado por
+ * quem o recebeu (depois do ack); cada resultado é entregue assim que fica pronto e, ao final, um
+ * frame de resumo com os totais do lote.
+ */
+@Service
+public class TransmissaoBatchService {
+
+    private final TransmissaoService transmissaoService;
+    private final int parallelismPerEmitente;
+    private final int maxSize;
+    private final int queueCapacity;
+    private final int threads;
+    private final ExecutorService executor;
+
+    // Itens aguardando vez por "<cnpj>@<uf>", compartilhado entre lotes
+    private final Map<String, FilaEmitente> filas = new ConcurrentHashMap<>();
+
+    // Itens aceitos e ainda não concluídos, de todos os lotes
+    private final AtomicInteger pendentes = new AtomicInteger();
+    private final AtomicLong itensExecutados = new AtomicLong();
+    private final AtomicLong tempoExecucaoNanos = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public TransmissaoBatchService(TransmissaoService transmissaoService,
+                                   @Value("${fiscal.execution-mode:platform}") String executionMode,
+                                   @Value("${fiscal.batch.parallelism-per-emitente:4}") int parallelismPerEmitente,
+                                   @Value("${fiscal.batch.threads:16}") int threads,
+                                   @Value("${fiscal.batch.max-size:500}") int maxSize,
+                                   @Value("${fiscal.batch.queue-capacity:2000}") int queueCapacity) {
+        this.transmissaoService = transmissaoService;
+        this.parallelismPerEmitente = parallelismPerEmitente;
+        this.maxSize = maxSize;
+        this.queueCapacity = queueCapacity;
+        this.threads = threads;
+        if ("virtual".equalsIgnoreCase(executionMode)) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("batch-vt-", 0).factory());
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "batch-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Lote aceito: nenhum item é validado, executado ou respondido antes de {@link #iniciar()}, de modo
+     * que quem recebeu o lote pode enviar o ack com o {@code batchId} antes de qualquer resultado.
+     */
+    public static final class Lote {
+        private final String batchId;
+        private final Runnable inicio;
+        private final AtomicBoolean iniciado = new AtomicBoolean();
+
+        private Lote(String batchId, Runnable inicio) {
+            this.batchId = batchId;
+            this.inicio = inicio;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public void iniciar() {
+            if (iniciado.compareAndSet(false, true)) {
+                inicio.run();
+            }
+        }
+    }
+
+    /**
+     * Aceita o lote, reservando as vagas de todos os itens. Depois de {@link Lote#iniciar()}, os
+     * resultados parciais e o resumo final são entregues a {@code onResult}, com {@code jobId} igual
+     * ao id do lote.
+     *
+     * @throws IllegalArgumentException se o lote tiver mais itens que {@code fiscal.batch.max-size}
+     * @throws TransmissaoPipeline.FilaCheiaException se os itens pendentes excederem {@code fiscal.batch.queue-capacity}
+     */
+    public Lote submit(List<FiscalRequest> requests, String correlationId, Consumer<FiscalResponse> onResult) {
+        if (requests.size() > maxSize) {
+            throw new IllegalArgumentException("Lote com " + requests.size() + " itens excede o limite de " + maxSize + ".");
+        }
+        // Reserva as vagas do lote inteiro de uma vez: ou o lote todo entra, ou é recusado
+        if (pendentes.addAndGet(requests.size()) > queueCapacity) {
+            pendentes.addAndGet(-requests.size());
+            rejected.incrementAndGet();
+            throw new TransmissaoPipeline.FilaCheiaException("de lotes", retryAfterMs());
+        }
+
+        String batchId = UUID.randomUUID().toString();
+        return new Lote(batchId, () -> iniciar(batchId, requests, correlationId, onResult));
+    }
+
+    private void iniciar(String batchId, List<FiscalRequest> requests, String correlationId, Consumer<FiscalResponse> onResult) {
+        long startedAt = System.currentTimeMillis();
+        AtomicInteger pending = new AtomicInteger(requests.size());
+        AtomicInteger success = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        Runnable finish = () -> {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("batchId", batchId);
+            summary.put("total", requests.size());
+            summary.put("success", success.get());
+            summary.put("errors", errors.get());
+            summary.put("durationMs", System.currentTimeMillis() - startedAt);
+            FiscalResponse response = new FiscalResponse("batch_summary", summary);
+            response.setJobId(batchId);
+            response.setCorrelationId(correlationId);
+            onResult.accept(response);
+        };
+
+        if (requests.isEmpty()) {
+            finish.run();
+            return;
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            FiscalRequest request = requests.get(i);
+            // Itens sem correlationId são identificados pela posição no lote
+            String itemCorrelationId = request.getCorrelationId() != null
+                    ? request.getCorrelationId()
+                    : (correlationId != null ? correlationId + ":" : "") + i;
+
+            Consumer<FiscalResponse> entregar = response -> {
+                pendentes.decrementAndGet();
+                if (response.getStatus() == 200) {
+                    success.incrementAndGet();
+                } else {
+                    errors.incrementAndGet();
+                }
+                response.setJobId(batchId);
+                response.setCorrelationId(itemCorrelationId);
+                onResult.accept(response);
+                if (pending.decrementAndGet() == 0) {
+                    finish.run();
+                }
+            };
+
+            // Itens inválidos (sem serviço, emitente desconhecido...) são respondidos sem ocupar fila
+            TransmissaoService.Transmissao transmissao;
+            try {
+                if (request.getServico() == null || request.getServico().isEmpty()) {
+                    throw new IllegalArgumentException("Item do lote sem serviço: apenas transmissões são aceitas em lote.");
+                }
+                transmissao = transmissaoService.preparar(request);
+            } catch (Exception e) {
+                entregar.accept(transmissaoService.errorResponse(request.getAction(), e));
+                continue;
+            }
+
+            enfileirar(request.getCnpj() + "@" + transmissao.emitente().getUf(),
+                    () -> entregar.accept(executarItem(transmissao)));
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("parallelismPerEmitente", parallelismPerEmitente);
+        stats.put("maxSize", maxSize);
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("pending", pendentes.get());
+        stats.put("executed", itensExecutados.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    private FiscalResponse executarItem(TransmissaoService.Transmissao transmissao) {
+        long inicio = System.nanoTime();
+        try {
+            return transmissaoService.executar(transmissao).join();
+        } catch (Exception e) {
+            return transmissaoService.errorResponse(transmissao.request().getAction(), e);
+        } finally {
+            itensExecutados.incrementAndGet();
+            tempoExecucaoNanos.addAndGet(System.nanoTime() - inicio);
+        }
+    }
+
+    private void enfileirar(String chave, Runnable item) {
+        FilaEmitente fila = filas.computeIfAbsent(chave, key -> new FilaEmitente());
+        synchronized (fila) {
+            fila.itens.add(item);
+        }
+        despachar(fila);
+    }
+
+    /**
+     * Envia ao executor os próximos itens da fila enquanto houver vaga no limite do emitente.
+     * Chamado ao enfileirar e ao término de cada item.
+     */
+    private void despachar(FilaEmitente fila) {
+        while (true) {
+            Runnable item;
+            synchronized (fila) {
+                if (fila.emExecucao >= parallelismPerEmitente || fila.itens.isEmpty()) {
+                    return;
+                }
+                item = fila.itens.poll();
+                fila.emExecucao++;
+            }
+            executor.execute(() -> {
+                try {
+                    item.run();
+                } finally {
+                    synchronized (fila) {
+                        fila.emExecucao--;
+                    }
+                    despachar(fila);
+                }
+            });
+        }
+    }
+
+    // Estimativa: tempo para as threads esvaziarem os itens pendentes, com no mínimo 1 segundo
+    private long retryAfterMs() {
+        long executados = itensExecutados.get();
+        long averageMs = executados == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(tempoExecucaoNanos.get() / executados);
+        return Math.max(1000L, averageMs * pendentes.get() / threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static class FilaEmitente {
+        private final Deque<Runnable> itens = new ArrayDeque<>();
+        private int emExecucao;
+    }
+}
@@ -0,0 +1,256 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.dto.FiscalResponse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Fila de trabalho das transmissões, uma por UF.
+ *
+ * Cada UF tem um número fixo de workers e uma fila limitada: um worker fica com o job até a SEFAZ
+ * responder, de modo que uma UF lenta só ocupa a própria fila. Com a fila cheia o job é recusado
+ * ({@link FilaCheiaException}) em vez de crescer threads ou memória sem limite. No encerramento as
+ * filas são esvaziadas até {@code fiscal.pipeline.shutdown-timeout-ms}; os jobs que não terminarem
+ * nesse prazo recebem uma resposta de erro, para que nenhum jobId aceito fique sem resultado.
+ */
+@Service
+public class TransmissaoPipeline {
+
+    private final TransmissaoService transmissaoService;
+    private final int workersPerUf;
+    private final int queueCapacity;
+    private final boolean virtualThreads;
+    private final long shutdownTimeoutMs;
+
+    private final Map<String, FilaUf> filas = new ConcurrentHashMap<>();
+
+    public TransmissaoPipeline(TransmissaoService transmissaoService,
+                               @Value("${fiscal.execution-mode:platform}") String executionMode,
+                               @Value("${fiscal.pipeline.workers-per-uf:4}") int workersPerUf,
+                               @Value("${fiscal.pipeline.queue-capacity:100}") int queueCapacity,
+                               @Value("${fiscal.pipeline.shutdown-timeout-ms:30000}") long shutdownTimeoutMs) {
+        this.transmissaoService = transmissaoService;
+        this.workersPerUf = workersPerUf;
+        this.queueCapacity = queueCapacity;
+        this.virtualThreads = "virtual".equalsIgnoreCase(executionMode);
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+    }
+
+    /**
+     * Exceção lançada quando a fila (da UF ou de lotes) está cheia; informa em quanto tempo vale tentar de novo.
+     */
+    public static class FilaCheiaException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMs;
+
+        public FilaCheiaException(String fila, long retryAfterMs) {
+            super("Fila de transmissão " + fila + " cheia, tente novamente em " + retryAfterMs + " ms");
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public long getRetryAfterMs() {
+            return retryAfterMs;
+        }
+    }
+
+    /**
+     * Enfileira uma transmissão já validada e retorna o id do job. O resultado (sucesso ou erro)
+     * é entregue a {@code onComplete} na thread do worker.
+     */
+    public String submit(TransmissaoService.Transmissao transmissao, Consumer<FiscalResponse> onComplete) {
+        String uf = transmissao.emitente().getUf();
+        FilaUf fila = filas.computeIfAbsent(uf, FilaUf::new);
+        if (fila.executor.isShutdown()) {
+            throw new IllegalStateException("Pipeline de transmissão encerrado.");
+        }
+        Job job = new Job(fila, transmissao, onComplete);
+
+        try {
+            fila.executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            fila.rejected.incrementAndGet();
+            throw new FilaCheiaException("da UF " + uf, fila.retryAfterMs());
+        }
+        return job.jobId;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workersPerUf", workersPerUf);
+        stats.put("queueCapacity", queueCapacity);
+        Map<String, Object> perUf = new LinkedHashMap<>();
+        filas.forEach((uf, fila) -> {
+            Map<String, Object> ufStats = new LinkedHashMap<>();
+            Map<String, Object> filaStats = fila.wait.toMap();
+            filaStats.put("depth", fila.executor.getQueue().size());
+            filaStats.put("rejected", fila.rejected.get());
+            ufStats.put("fila", filaStats);
+            Map<String, Object> execucaoStats = fila.service.toMap();
+            execucaoStats.put("active", fila.executor.getActiveCount());
+            ufStats.put("execucao", execucaoStats);
+            perUf.put(uf, ufStats);
+        });
+        stats.put("ufs", perUf);
+        return stats;
+    }
+
+    /**
+     * Para de aceitar jobs, aguarda os que já estão nas filas e responde com erro os que não
+     * terminarem no prazo (ainda na fila ou aguardando a SEFAZ).
+     */
+    @PreDestroy
+    public void shutdown() {
+        filas.values().forEach(fila -> fila.executor.shutdown());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+        try {
+            for (FilaUf fila : filas.values()) {
+                fila.executor.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int abortados = 0;
+        for (FilaUf fila : filas.values()) {
+            for (Runnable naoIniciado : fila.executor.shutdownNow()) {
+                if (naoIniciado instanceof Job job && job.abortar()) {
+                    abortados++;
+                }
+            }
+            for (Job job : fila.emExecucao) {
+                if (job.abortar()) {
+                    abortados++;
+                }
+            }
+        }
+        if (abortados > 0) {
+            System.err.println("Pipeline encerrado com " + abortados + " job(s) não concluído(s), respondido(s) com erro");
+        }
+    }
+
+    /**
+     * Transmissão enfileirada; o resultado é entregue uma única vez (concluída ou abortada no encerramento).
+     */
+    private final class Job implements Runnable {
+        private final String jobId = UUID.randomUUID().toString();
+        private final long enqueuedAt = System.nanoTime();
+        private final FilaUf fila;
+        private final TransmissaoService.Transmissao transmissao;
+        private final Consumer<FiscalResponse> onComplete;
+        private final AtomicBoolean entregue = new AtomicBoolean();
+
+        private Job(FilaUf fila, TransmissaoService.Transmissao transmissao, Consumer<FiscalResponse> onComplete) {
+            this.fila = fila;
+            this.transmissao = transmissao;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            fila.wait.record(startedAt - enqueuedAt);
+            fila.emExecucao.add(this);
+            FiscalResponse response;
+            try {
+                response = transmissaoService.executar(transmissao).join();
+            } catch (Exception e) {
+                response = transmissaoService.errorResponse(transmissao.request().getAction(), e);
+            } finally {
+                fila.service.record(System.nanoTime() - startedAt);
+                fila.emExecucao.remove(this);
+            }
+            entregar(response);
+        }
+
+        private boolean abortar() {
+            return entregar(new FiscalResponse(503, null, "Servidor em encerramento: job não concluído",
+                    transmissao.request().getAction()));
+        }
+
+        private boolean entregar(FiscalResponse response) {
+            if (!entregue.compareAndSet(false, true)) {
+                return false;
+            }
+            response.setJobId(jobId);
+            try {
+                onComplete.accept(response);
+            } catch (RuntimeException e) {
+                System.err.println("Falha ao entregar o resultado do job " + jobId + ": " + e.getMessage());
+            }
+            return true;
+        }
+    }
+
+    private class FilaUf {
+        private final ThreadPoolExecutor executor;
+        private final StageStats wait = new StageStats();
+        private final StageStats service = new StageStats();
+        private final AtomicLong rejected = new AtomicLong();
+        private final Set<Job> emExecucao = ConcurrentHashMap.newKeySet();
+
+        private FilaUf(String uf) {
+            ThreadFactory threadFactory;
+            if (virtualThreads) {
+                threadFactory = Thread.ofVirtual().name("pipeline-" + uf + "-vt-", 0).factory();
+            } else {
+                AtomicInteger threadCount = new AtomicInteger();
+                threadFactory = runnable -> {
+                    Thread thread = new Thread(runnable, "pipeline-" + uf + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+            }
+            this.executor = new ThreadPoolExecutor(workersPerUf, workersPerUf, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        // Estimativa: tempo para os workers esvaziarem a fila atual, com no mínimo 1 segundo
+        private long retryAfterMs() {
+            long averageServiceMs = service.averageMs();
+            long estimate = averageServiceMs * executor.getQueue().size() / workersPerUf;
+            return Math.max(1000L, estimate);
+        }
+    }
+
+    private static class StageStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private long averageMs() {
+            long n = count.get();
+            return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / n);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count.get());
+            map.put("avgMs", averageMs());
+            map.put("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+            return map;
+        }
+    }
+}
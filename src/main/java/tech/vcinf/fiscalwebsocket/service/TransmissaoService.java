@@ -0,0 +1,210 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.builder.XmlBuilder;
+import tech.vcinf.fiscalwebsocket.dto.FiscalRequest;
+import tech.vcinf.fiscalwebsocket.dto.FiscalResponse;
+import tech.vcinf.fiscalwebsocket.model.Emitente;
+import tech.vcinf.fiscalwebsocket.model.TransactionLog;
+import tech.vcinf.fiscalwebsocket.util.Uf;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Transmissão genérica de um documento à SEFAZ: montagem do XML, assinatura, envio e registro.
+ *
+ * Dividida em duas etapas para que a validação ({@link #preparar}) rode na thread que recebeu a
+ * mensagem e a execução ({@link #executar}) possa ser feita diretamente ou por uma fila de trabalho.
+ */
+@Service
+public class TransmissaoService {
+
+    private static final Set<String> SERVICES_WITHOUT_SIGNATURE = Set.of("STATUS", "CONSULTA", "CONSULTA_CADASTRO", "RET_AUTORIZACAO");
+
+    // Flag do payload que força a consulta à SEFAZ mesmo havendo resposta em cache
+    public static final String BYPASS_CACHE = "bypassCache";
+
+    private static final Set<String> SERVICES_TO_LOG = Set.of("AUTORIZACAO", "INUTILIZACAO", "EVENTO");
+
+    // Chave de acesso do documento: Id de infNFe/infMDFe ou chNFe/chMDFe dos eventos
+    private static final Pattern CHAVE_ACESSO = Pattern.compile("(?:Id=\"(?:NFe|MDFe)|<chNFe>|<chMDFe>)(\\d{44})");
+
+    private static final Pattern C_STAT = Pattern.compile("<cStat>(\\d{3})</cStat>");
+
+    private final EmitenteCache emitenteCache;
+    private final TransactionLogWriter transactionLogWriter;
+    private final UfWebService ufWebService;
+    private final XmlSignatureService xmlSignatureService;
+    private final SefazService sefazService;
+    private final SefazStatusMonitor sefazStatusMonitor;
+    private final ResponseCache responseCache;
+    private final Map<String, XmlBuilder> xmlBuilders;
+
+    public TransmissaoService(EmitenteCache emitenteCache,
+                              TransactionLogWriter transactionLogWriter,
+                              UfWebService ufWebService,
+                              XmlSignatureService xmlSignatureService,
+                              SefazService sefazService,
+                              SefazStatusMonitor sefazStatusMonitor,
+                              ResponseCache responseCache,
+                              Map<String, XmlBuilder> xmlBuilders) {
+        this.emitenteCache = emitenteCache;
+        this.transactionLogWriter = transactionLogWriter;
+        this.ufWebService = ufWebService;
+        this.xmlSignatureService = xmlSignatureService;
+        this.sefazService = sefazService;
+        this.sefazStatusMonitor = sefazStatusMonitor;
+        this.responseCache = responseCache;
+        this.xmlBuilders = xmlBuilders;
+    }
+
+    /**
+     * Requisição já validada: emitente encontrado e URL do serviço resolvida.
+     */
+    public record Transmissao(FiscalRequest request, Emitente emitente, String modelo, String servico, String url,
+                              Map<String, Object> payload) {}
+
+    public Transmissao preparar(FiscalRequest request) {
+        String cnpj = request.getCnpj();
+        Emitente emitente = emitenteCache.get(cnpj)
+                .orElseThrow(() -> new RuntimeException("Emitente not found: " + cnpj));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> payload = (Map<String, Object>) request.getData();
+        if (payload == null) {
+            payload = Map.of();
+        }
+        String modelo = (String) payload.get("modelo");
+        String ambiente = (String) payload.get("ambiente");
+        String servico = request.getServico(); // This is the simple service key like "STATUS", "CONSULTA"
+
+        // UF é opcional no register, mas define o endpoint, o cUF do envelope e a fila do pipeline
+        if (Uf.of(emitente.getUf()) == null) {
+            throw new IllegalArgumentException("Emitente " + cnpj + " sem UF válida (" + emitente.getUf()
+                    + "): informe a UF no register antes de transmitir.");
+        }
+
+        String url = ufWebService.getUrl(modelo, servico, emitente.getUf(), ambiente);
+        if (url == null) {
+            throw new IllegalArgumentException("Serviço " + servico + " não disponível para " + modelo + "/" + emitente.getUf() + "/" + ambiente);
+        }
+        System.out.println("URL Serviço Sefaz: " + url);
+
+        return new Transmissao(request, emitente, modelo, servico, url, payload);
+    }
+
+    public CompletableFuture<FiscalResponse> executar(Transmissao transmissao) {
+        FiscalRequest request = transmissao.request();
+        Emitente emitente = transmissao.emitente();
+        String servico = transmissao.servico();
+        String ambiente = (String) transmissao.payload().get("ambiente");
+        boolean bypassCache = Boolean.TRUE.equals(transmissao.payload().get(BYPASS_CACHE));
+        try {
+            // STATUS respondido com a última consulta do monitor, se ainda dentro do limite de idade
+            if ("STATUS".equals(servico) && (request.getXml() == null || request.getXml().isEmpty()) && !bypassCache) {
+                Optional<SefazStatusMonitor.CachedStatus> cached = sefazStatusMonitor.getFresh(
+                        transmissao.modelo(), emitente.getUf(), ambiente);
+                if (cached.isPresent()) {
+                    FiscalResponse response = new FiscalResponse(200, cached.get().xmlResposta(), "Success", request.getAction());
+                    response.setCacheAgeMs(cached.get().ageMs());
+                    return CompletableFuture.completedFuture(response);
+                }
+            }
+
+            String xml;
+            XmlBuilder builder = xmlBuilders.get(servico);
+            if (builder != null && (request.getXml() == null || request.getXml().isEmpty())) {
+                xml = builder.build(transmissao.payload(), emitente.getCnpj(), emitente.getUf());
+            } else {
+                // For services like AUTORIZACAO (or when the client sends its own XML), XML comes from client
+                xml = request.getXml();
+            }
+
+            if (xml == null || xml.isEmpty()) {
+                throw new IllegalArgumentException("XML de entrada não pode ser vazio para esta operação.");
+            }
+
+            // Consultas repetidas (mesmo serviço, UF, ambiente e XML) respondidas do cache dentro do TTL do serviço
+            if (SERVICES_WITHOUT_SIGNATURE.contains(servico) && responseCache.isCacheable(servico)) {
+                String key = ResponseCache.key(servico, transmissao.modelo(), emitente.getUf(), ambiente, xml);
+                return responseCache.get(servico, key, bypassCache,
+                                () -> sefazService.sendAsync(transmissao.url(), xml, emitente, transmissao.modelo(), servico))
+                        .thenApply(result -> {
+                            if (result.ageMs() == null) {
+                                registrarTransacao(emitente.getCnpj(), servico, xml, result.responseBody());
+                            }
+                            FiscalResponse response = new FiscalResponse(200, result.responseBody(), "Success", request.getAction());
+                            response.setCacheAgeMs(result.ageMs());
+                            return response;
+                        })
+                        .exceptionally(e -> errorResponse(request.getAction(), e));
+            }
+
+            String xmlToSend = xml;
+            if (!SERVICES_WITHOUT_SIGNATURE.contains(servico)) {
+                xmlToSend = xmlSignatureService.signBatch(xml, emitente);
+            }
+
+            // Envio não bloqueante: a thread chamadora é liberada enquanto a SEFAZ responde
+            return sefazService.sendAsync(transmissao.url(), xmlToSend, emitente, transmissao.modelo(), servico)
+                    .thenApply(responseBody -> {
+                        registrarTransacao(emitente.getCnpj(), servico, xml, responseBody);
+                        return new FiscalResponse(200, responseBody, "Success", request.getAction());
+                    })
+                    .exceptionally(e -> errorResponse(request.getAction(), e));
+
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(errorResponse(request.getAction(), e));
+        }
+    }
+
+    public FiscalResponse errorResponse(String action, Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        e.printStackTrace();
+        return new FiscalResponse(500, null, e.getClass().getSimpleName() + ": " + e.getMessage(), action);
+    }
+
+    private void registrarTransacao(String cnpj, String servico, String xml, String responseBody) {
+        if (SERVICES_TO_LOG.contains(servico)) {
+            // Gravação em segundo plano: a resposta ao cliente não espera o banco
+            TransactionLog log = new TransactionLog();
+            log.setCnpj(cnpj);
+            log.setServico(servico);
+            log.setChaveAcesso(extrairChaveAcesso(xml));
+            log.setcStat(extrairCStat(responseBody));
+            log.setXmlEnviado(xml);
+            log.setXmlResposta(responseBody);
+            log.setStatusHttp(200);
+            transactionLogWriter.enqueue(log);
+            System.out.println("Transação enfileirada para registro no banco: " + servico);
+        } else {
+            System.out.println("Serviço consultivo - sem log persistente: " + servico);
+        }
+    }
+
+    private static String extrairChaveAcesso(String xml) {
+        Matcher matcher = CHAVE_ACESSO.matcher(xml);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    // O último cStat é o do documento (o primeiro costuma ser o do lote)
+    private static String extrairCStat(String responseBody) {
+        if (responseBody == null) {
+            return null;
+        }
+        Matcher matcher = C_STAT.matcher(responseBody);
+        String cStat = null;
+        while (matcher.find()) {
+            cStat = matcher.group(1);
+        }
+        return cStat;
+    }
+}
@@ -0,0 +1,191 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import tech.vcinf.fiscalwebsocket.util.CacertUtil;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Truststore único da aplicação (cacert com as raízes ICP-Brasil e as cadeias dos hosts SEFAZ).
+ *
+ * O arquivo é lido uma vez na inicialização e exposto por um único TrustManager que delega ao
+ * material atual; todos os SSLContext dos emitentes recebem essa mesma instância. Uma atualização
+ * do truststore ({@link #reload()} ou {@link #swap(KeyStore)}) troca o material de forma atômica,
+ * sem recriar os SSLContext: os handshakes seguintes já validam com o conjunto novo.
+ */
+@Service
+public class TrustStoreManager {
+
+    private final String location;
+    private final String fallbackLocation;
+    private final boolean includeJvmCacerts;
+    private final DefaultResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private final AtomicReference<TrustMaterial> current = new AtomicReference<>();
+    private final TrustManager[] trustManagers = {new DelegatingTrustManager()};
+
+    private final AtomicLong reloads = new AtomicLong();
+
+    private record TrustMaterial(KeyStore keyStore, X509ExtendedTrustManager trustManager, String source,
+                                 LocalDateTime loadedAt) {}
+
+    public TrustStoreManager(@Value("${fiscal.truststore.location:file:src/main/resources/cacert}") String location,
+                             @Value("${fiscal.truststore.fallback-location:classpath:cacert}") String fallbackLocation,
+                             @Value("${fiscal.truststore.include-jvm-cacerts:false}") boolean includeJvmCacerts) {
+        this.location = location;
+        this.fallbackLocation = fallbackLocation;
+        this.includeJvmCacerts = includeJvmCacerts;
+    }
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * TrustManagers compartilhados por todos os SSLContext. A instância não muda entre recargas.
+     */
+    public TrustManager[] getTrustManagers() {
+        return trustManagers;
+    }
+
+    /**
+     * Relê o truststore da localização configurada (ou da alternativa, se não existir) e o publica.
+     */
+    public void reload() {
+        Resource resource = resourceLoader.getResource(location);
+        if (!resource.exists()) {
+            resource = resourceLoader.getResource(fallbackLocation);
+        }
+
+        String source;
+        KeyStore keyStore;
+        try {
+            if (resource.exists()) {
+                source = resource.getDescription();
+                try (InputStream in = resource.getInputStream()) {
+                    keyStore = CacertUtil.loadTrustStore(in, includeJvmCacerts);
+                }
+            } else {
+                System.err.println("AVISO: cacert não encontrado em " + location + ". Usando apenas truststore da JVM.");
+                source = "jvm";
+                keyStore = CacertUtil.loadTrustStore(null, true);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Falha ao carregar o truststore: " + location, e);
+        }
+        publish(keyStore, source);
+    }
+
+    /**
+     * Publica um cacert já montado (ex.: após a atualização das cadeias da SEFAZ), aplicando a mesma
+     * combinação com o truststore da JVM usada na carga.
+     */
+    public void swap(KeyStore cacert) {
+        KeyStore keyStore;
+        try {
+            keyStore = CacertUtil.loadTrustStore(null, includeJvmCacerts);
+            CacertUtil.copyCertificates(cacert, keyStore, "");
+        } catch (Exception e) {
+            throw new RuntimeException("Falha ao montar o truststore atualizado", e);
+        }
+        publish(keyStore, "swap");
+    }
+
+    public Map<String, Object> getStats() {
+        TrustMaterial material = current.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("source", material.source());
+        stats.put("loadedAt", material.loadedAt().toString());
+        stats.put("acceptedIssuers", material.trustManager().getAcceptedIssuers().length);
+        stats.put("reloads", reloads.get());
+        return stats;
+    }
+
+    private void publish(KeyStore keyStore, String source) {
+        try {
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(keyStore);
+            X509ExtendedTrustManager trustManager = null;
+            for (TrustManager candidate : trustManagerFactory.getTrustManagers()) {
+                if (candidate instanceof X509ExtendedTrustManager x509) {
+                    trustManager = x509;
+                    break;
+                }
+            }
+            if (trustManager == null) {
+                throw new IllegalStateException("Nenhum X509TrustManager disponível para o truststore");
+            }
+
+            TrustMaterial previous = current.getAndSet(new TrustMaterial(keyStore, trustManager, source, LocalDateTime.now()));
+            if (previous != null) {
+                reloads.incrementAndGet();
+            }
+            System.out.println("Truststore carregado de " + source + ": " + keyStore.size() + " certificados");
+        } catch (Exception e) {
+            throw new RuntimeException("Falha ao publicar o truststore", e);
+        }
+    }
+
+    /**
+     * TrustManager estável entregue aos SSLContext; cada verificação usa o material publicado no momento.
+     */
+    private class DelegatingTrustManager extends X509ExtendedTrustManager {
+
+        private X509ExtendedTrustManager delegate() {
+            return current.get().trustManager();
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            delegate().checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            delegate().checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            delegate().checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            delegate().checkServerTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            delegate().checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            delegate().checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate().getAcceptedIssuers();
+        }
+    }
+}
@@ -1,6 +1,15 @@
 package tech.vcinf.fiscalwebsocket.service;
 
+import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Service;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import tech.vcinf.fiscalwebsocket.model.Emitente;
 
 import javax.xml.crypto.dsig.*;
 import javax.xml.crypto.dsig.dom.DOMSignContext;
@@ -9,53 +18,400 @@ import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
 import javax.xml.crypto.dsig.keyinfo.X509Data;
 import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
 import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 @Service
 public class XmlSignatureService {
 
+    // Fábricas JAXP resolvidas uma única vez (a busca pelo service loader é cara); só são usadas
+    // para criar os parsers/transformers dos contextos do pool
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = newDocumentBuilderFactory();
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+    // Contextos de assinatura reaproveitáveis. Um pool compartilhado (e não ThreadLocal) para continuar
+    // efetivo no modo de virtual threads, em que cada mensagem roda numa thread nova
+    private static final int CONTEXT_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    private final BlockingQueue<SignerContext> contextPool = new ArrayBlockingQueue<>(CONTEXT_POOL_SIZE);
+
+    // Elementos assinados individualmente, referenciados pelo atributo Id (ex.: cada infNFe de um lote enviNFe)
+    private static final List<String> SIGNABLE_ELEMENTS = List.of("infNFe", "infEvento", "infInut");
+    private static final String XMLNS_NAMESPACE = "http://www.w3.org/2000/xmlns/";
+
+    // Assinaturas independentes de um mesmo lote são calculadas em paralelo
+    private final ForkJoinPool signingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // KeyInfo montado a partir do material de chave do emitente (CertificateManager), por CNPJ;
+    // refeito quando o CertificateManager publica um material novo
+    private final Map<String, SigningKey> signingKeyCache = new ConcurrentHashMap<>();
+
+    private final CertificateManager certificateManager;
+
+    public XmlSignatureService(CertificateManager certificateManager) {
+        this.certificateManager = certificateManager;
+    }
+
+    private record SigningKey(CertificateManager.KeyMaterial material, PrivateKey privateKey,
+                              List<X509Certificate> chain, KeyInfo keyInfo) {}
+
+    /**
+     * Objetos não thread-safe usados numa assinatura: parser, transformer e XMLSignatureFactory,
+     * junto com as partes constantes do SignedInfo (métodos de digest, assinatura e canonicalização).
+     * Reference e SignedInfo guardam o digest calculado, por isso são criados a cada assinatura.
+     */
+    private static final class SignerContext {
+        private final DocumentBuilder documentBuilder;
+        private final Transformer transformer;
+        private final XMLSignatureFactory signatureFactory;
+        private final DigestMethod digestMethod;
+        private final List<Transform> envelopedTransforms;
+        private final List<Transform> idReferenceTransforms;
+        private final CanonicalizationMethod canonicalizationMethod;
+        private final SignatureMethod signatureMethod;
+
+        private SignerContext() throws Exception {
+            this.documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            this.transformer = TRANSFORMER_FACTORY.newTransformer();
+            this.signatureFactory = XMLSignatureFactory.getInstance("DOM");
+            this.digestMethod = signatureFactory.newDigestMethod(DigestMethod.SHA1, null);
+            this.envelopedTransforms = Collections.singletonList(
+                    signatureFactory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null));
+            this.idReferenceTransforms = List.of(
+                    signatureFactory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null),
+                    signatureFactory.newTransform(CanonicalizationMethod.INCLUSIVE, (TransformParameterSpec) null));
+            this.canonicalizationMethod = signatureFactory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE,
+                    (C14NMethodParameterSpec) null);
+            this.signatureMethod = signatureFactory.newSignatureMethod(SignatureMethod.RSA_SHA1, null);
+        }
+
+        private Document parse(InputSource source) throws Exception {
+            return documentBuilder.parse(source);
+        }
+
+        private void serialize(Document doc, StreamResult result, boolean omitXmlDeclaration) throws Exception {
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, omitXmlDeclaration ? "yes" : "no");
+            transformer.transform(new DOMSource(doc), result);
+        }
+
+        private void sign(Document doc, SigningKey signingKey) throws Exception {
+            Reference ref = signatureFactory.newReference("", digestMethod, envelopedTransforms, null, null);
+            SignedInfo si = signatureFactory.newSignedInfo(canonicalizationMethod, signatureMethod,
+                    Collections.singletonList(ref));
+
+            DOMSignContext dsc = new DOMSignContext(signingKey.privateKey(), doc.getDocumentElement());
+            XMLSignature signature = signatureFactory.newXMLSignature(si, signingKey.keyInfo());
+            signature.sign(dsc);
+        }
+
+        /**
+         * Assina um elemento pelo seu Id ({@code URI="#Id"}); a assinatura é inserida no elemento pai.
+         */
+        private void signElement(Element target, SigningKey signingKey) throws Exception {
+            String id = target.getAttribute("Id");
+            target.setIdAttribute("Id", true);
+
+            Reference ref = signatureFactory.newReference("#" + id, digestMethod, idReferenceTransforms, null, null);
+            SignedInfo si = signatureFactory.newSignedInfo(canonicalizationMethod, signatureMethod,
+                    Collections.singletonList(ref));
+
+            DOMSignContext dsc = new DOMSignContext(signingKey.privateKey(), target.getParentNode());
+            XMLSignature signature = signatureFactory.newXMLSignature(si, signingKey.keyInfo());
+            signature.sign(dsc);
+        }
+
+        private void reset() {
+            documentBuilder.reset();
+            transformer.reset();
+        }
+    }
+
+    /**
+     * Assina o XML em memória com a chave em cache do emitente.
+     */
+    public String signXml(String xml, Emitente emitente) throws Exception {
+        return signXml(xml, getSigningKey(emitente));
+    }
+
+    public Document signDocument(Document doc, Emitente emitente) throws Exception {
+        SigningKey signingKey = getSigningKey(emitente);
+        SignerContext context = borrowContext();
+        try {
+            context.sign(doc, signingKey);
+            return doc;
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    /**
+     * Assina cada infNFe/infEvento/infInut do documento pelo seu Id. Em lotes com vários documentos
+     * as assinaturas são calculadas em paralelo e o lote é remontado uma única vez ao final.
+     * Sem nenhum desses elementos, assina o elemento raiz como {@link #signXml(String, Emitente)}.
+     */
+    public String signBatch(String xml, Emitente emitente) throws Exception {
+        SigningKey signingKey = getSigningKey(emitente);
+        SignerContext context = borrowContext();
+        try {
+            Document doc = context.parse(new InputSource(new StringReader(xml)));
+            List<Element> targets = findSignableElements(doc);
+
+            if (targets.isEmpty()) {
+                context.sign(doc, signingKey);
+            } else if (targets.size() == 1) {
+                context.signElement(targets.get(0), signingKey);
+            } else {
+                signInParallel(doc, targets, signingKey, context);
+            }
+
+            StringWriter writer = new StringWriter(xml.length() + 2048 * Math.max(1, targets.size()));
+            context.serialize(doc, new StreamResult(writer), true);
+            return writer.toString();
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    /**
+     * Assina o XML em memória e devolve o documento assinado, sem declaração XML,
+     * pronto para ser embutido no envelope SOAP.
+     */
+    public String signXml(String xml, String certificatePath, String password) throws Exception {
+        return signXml(xml, loadSigningKey(certificatePath, password));
+    }
+
+    public byte[] signXml(byte[] xml, String certificatePath, String password) throws Exception {
+        SigningKey signingKey = loadSigningKey(certificatePath, password);
+        SignerContext context = borrowContext();
+        try {
+            Document doc = context.parse(new InputSource(new ByteArrayInputStream(xml)));
+            context.sign(doc, signingKey);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length + 2048);
+            context.serialize(doc, new StreamResult(out), true);
+            return out.toByteArray();
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    /**
+     * Assina o elemento raiz do documento (assinatura envelopada), alterando o DOM recebido.
+     */
+    public Document signDocument(Document doc, String certificatePath, String password) throws Exception {
+        SigningKey signingKey = loadSigningKey(certificatePath, password);
+        SignerContext context = borrowContext();
+        try {
+            context.sign(doc, signingKey);
+            return doc;
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    /**
+     * Adaptador para a API baseada em arquivo: lê o XML do disco, assina em memória e grava de volta.
+     */
     public void sign(String xmlPath, String certificatePath, String password) throws Exception {
+        SigningKey signingKey = loadSigningKey(certificatePath, password);
+        SignerContext context = borrowContext();
+        try {
+            Document doc;
+            try (InputStream in = new FileInputStream(xmlPath)) {
+                doc = context.parse(new InputSource(in));
+            }
+            context.sign(doc, signingKey);
+
+            try (OutputStream os = new FileOutputStream(xmlPath)) {
+                context.serialize(doc, new StreamResult(os), false);
+            }
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    private String signXml(String xml, SigningKey signingKey) throws Exception {
+        SignerContext context = borrowContext();
+        try {
+            Document doc = context.parse(new InputSource(new StringReader(xml)));
+            context.sign(doc, signingKey);
+
+            StringWriter writer = new StringWriter(xml.length() + 2048);
+            context.serialize(doc, new StreamResult(writer), true);
+            return writer.toString();
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    private void signInParallel(Document lote, List<Element> targets, SigningKey signingKey,
+                                SignerContext context) throws Exception {
+        // 1. Destacar cada documento (pai do elemento assinado) num DOM próprio: o DOM não é
+        //    thread-safe, então cada tarefa trabalha isolada
+        List<Element> containers = new ArrayList<>(targets.size());
+        List<Callable<Element>> tasks = new ArrayList<>(targets.size());
+        for (Element target : targets) {
+            Element container = (Element) target.getParentNode();
+            Document part = detach(container, context);
+            String localName = target.getLocalName();
+            String id = target.getAttribute("Id");
+            containers.add(container);
+            tasks.add(() -> {
+                SignerContext taskContext = borrowContext();
+                try {
+                    taskContext.signElement(findChild(part.getDocumentElement(), localName, id), signingKey);
+                    return part.getDocumentElement();
+                } finally {
+                    releaseContext(taskContext);
+                }
+            });
+        }
+
+        // 2. Assinar em paralelo
+        List<Future<Element>> results = signingPool.invokeAll(tasks);
+
+        // 3. Remontar o lote com os documentos assinados
+        for (int i = 0; i < results.size(); i++) {
+            Element signed;
+            try {
+                signed = results.get(i).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            Element container = containers.get(i);
+            container.getParentNode().replaceChild(lote.importNode(signed, true), container);
+        }
+    }
+
+    private Document detach(Element container, SignerContext context) {
+        Document part = context.documentBuilder.newDocument();
+        Element root = (Element) part.importNode(container, true);
+        part.appendChild(root);
+
+        // Declarações de namespace herdadas dos ancestrais passam a ser explícitas na cópia,
+        // mantendo a canonicalização idêntica à do elemento dentro do lote
+        for (Node ancestor = container.getParentNode(); ancestor instanceof Element element; ancestor = element.getParentNode()) {
+            NamedNodeMap attributes = element.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attr = (Attr) attributes.item(i);
+                if (XMLNS_NAMESPACE.equals(attr.getNamespaceURI()) && !root.hasAttribute(attr.getName())) {
+                    root.setAttributeNS(XMLNS_NAMESPACE, attr.getName(), attr.getValue());
+                }
+            }
+        }
+        return part;
+    }
 
-        XMLSignatureFactory fac = XMLSignatureFactory.getInstance("DOM");
+    private static List<Element> findSignableElements(Document doc) {
+        List<Element> targets = new ArrayList<>();
+        for (String name : SIGNABLE_ELEMENTS) {
+            NodeList nodes = doc.getElementsByTagNameNS("*", name);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Element element = (Element) nodes.item(i);
+                if (element.hasAttribute("Id") && element.getParentNode() instanceof Element) {
+                    targets.add(element);
+                }
+            }
+        }
+        return targets;
+    }
 
-        Reference ref = fac.newReference("", fac.newDigestMethod(DigestMethod.SHA1, null),
-                Collections.singletonList(fac.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null)),
-                null, null);
+    private static Element findChild(Element parent, String localName, String id) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element element && localName.equals(element.getLocalName())
+                    && id.equals(element.getAttribute("Id"))) {
+                return element;
+            }
+        }
+        throw new IllegalStateException("Elemento " + localName + " com Id " + id + " não encontrado.");
+    }
 
-        SignedInfo si = fac.newSignedInfo(fac.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE,
-                (C14NMethodParameterSpec) null), fac.newSignatureMethod(SignatureMethod.RSA_SHA1, null),
-                Collections.singletonList(ref));
+    private SigningKey getSigningKey(Emitente emitente) throws Exception {
+        CertificateManager.KeyMaterial material = certificateManager.get(emitente);
+        SigningKey cached = signingKeyCache.get(emitente.getCnpj());
+        if (cached != null && cached.material() == material) {
+            return cached;
+        }
+        SigningKey signingKey = newSigningKey(material, material.privateKey(), material.chain());
+        signingKeyCache.put(emitente.getCnpj(), signingKey);
+        return signingKey;
+    }
 
+    private SigningKey loadSigningKey(String certificatePath, String password) throws Exception {
         KeyStore ks = KeyStore.getInstance("PKCS12");
-        ks.load(new FileInputStream(certificatePath), password.toCharArray());
+        try (InputStream in = new FileInputStream(certificatePath)) {
+            ks.load(in, password.toCharArray());
+        }
         KeyStore.PrivateKeyEntry keyEntry = (KeyStore.PrivateKeyEntry)
                 ks.getEntry(ks.aliases().nextElement(), new KeyStore.PasswordProtection(password.toCharArray()));
-        X509Certificate cert = (X509Certificate) keyEntry.getCertificate();
 
-        KeyInfoFactory kif = fac.getKeyInfoFactory();
-        X509Data x509Data = kif.newX509Data(Collections.singletonList(cert));
-        KeyInfo ki = kif.newKeyInfo(Collections.singletonList(x509Data));
+        List<X509Certificate> chain = new ArrayList<>();
+        for (Certificate certificate : keyEntry.getCertificateChain()) {
+            chain.add((X509Certificate) certificate);
+        }
+        return newSigningKey(null, keyEntry.getPrivateKey(), List.copyOf(chain));
+    }
 
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        dbf.setNamespaceAware(true);
-        org.w3c.dom.Document doc = dbf.newDocumentBuilder().parse(new FileInputStream(xmlPath));
+    private SigningKey newSigningKey(CertificateManager.KeyMaterial material, PrivateKey privateKey,
+                                     List<X509Certificate> chain) throws Exception {
+        KeyInfo ki;
+        SignerContext context = borrowContext();
+        try {
+            KeyInfoFactory kif = context.signatureFactory.getKeyInfoFactory();
+            X509Data x509Data = kif.newX509Data(Collections.singletonList(chain.get(0)));
+            ki = kif.newKeyInfo(Collections.singletonList(x509Data));
+        } finally {
+            releaseContext(context);
+        }
+        return new SigningKey(material, privateKey, chain, ki);
+    }
 
-        DOMSignContext dsc = new DOMSignContext(keyEntry.getPrivateKey(), doc.getDocumentElement());
+    private SignerContext borrowContext() throws Exception {
+        SignerContext context = contextPool.poll();
+        return context != null ? context : new SignerContext();
+    }
 
-        XMLSignature signature = fac.newXMLSignature(si, ki);
+    private void releaseContext(SignerContext context) {
+        context.reset();
+        // Pool cheio: o contexto excedente é simplesmente descartado
+        contextPool.offer(context);
+    }
 
-        signature.sign(dsc);
+    @PreDestroy
+    public void shutdown() {
+        signingPool.shutdown();
+    }
 
-        try (OutputStream os = new FileOutputStream(xmlPath)) {
-            javax.xml.transform.TransformerFactory tf = javax.xml.transform.TransformerFactory.newInstance();
-            javax.xml.transform.Transformer trans = tf.newTransformer();
-            trans.transform(new javax.xml.transform.dom.DOMSource(doc), new javax.xml.transform.stream.StreamResult(os));
-        }
+    private static DocumentBuilderFactory newDocumentBuilderFactory() {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        return dbf;
     }
 }
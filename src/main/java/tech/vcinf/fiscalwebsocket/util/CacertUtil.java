@@ -2,13 +2,22 @@ package tech.vcinf.fiscalwebsocket.util;
 
 import javax.net.ssl.*;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.*;
+import java.security.cert.CertPathValidator;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utilitário para criar e gerenciar o truststore customizado (cacert)
@@ -25,10 +34,23 @@ public class CacertUtil {
             "http://acraiz.icpbrasil.gov.br/credenciadas/RAIZ/ICP-Brasilv2.crt"
     );
 
-    private static final String CACERT_FILE_NAME = "src/main/resources/cacert";
-    private static final String CACERT_PASSWORD = "changeit";
+    public static final String CACERT_FILE_NAME = "src/main/resources/cacert";
+    public static final String SEFAZ_URLS_FILE_NAME = "src/main/resources/sefaz-urls.ini";
+    public static final String CACERT_PASSWORD = "changeit";
     private static final int TIMEOUT_MS = 10000; // 10 segundos
     private static final int PORTA_SSL = 443;
+    private static final int PARALELISMO_PADRAO = 8;
+    private static final long PRAZO_TOTAL_PADRAO_MS = 120000;
+
+    /**
+     * Resultado da atualização das cadeias da SEFAZ: apenas os hosts com cadeia diferente
+     * da já instalada alteram o truststore.
+     */
+    public record ResultadoAtualizacao(int hosts, int alterados, int inalterados, int falhas) {
+        public boolean houveAlteracao() {
+            return alterados > 0;
+        }
+    }
 
     public static void instalarCertificadosICPBrasil() {
         try {
@@ -58,17 +80,63 @@ public class CacertUtil {
 
         // 3. Extrair certificados dos servidores SEFAZ
         System.out.println("\n--- FASE 2: Certificados dos Servidores SEFAZ ---");
-        extractSefazCertificates(keyStore, "src/main/resources/sefaz-urls.ini");
+        File iniFile = new File(SEFAZ_URLS_FILE_NAME);
+        if (iniFile.exists()) {
+            atualizarCadeiasSefaz(keyStore, extractUniqueHosts(iniFile), PARALELISMO_PADRAO, TIMEOUT_MS, PRAZO_TOTAL_PADRAO_MS);
+        } else {
+            System.err.println("AVISO: Arquivo sefaz-urls.ini não encontrado. Pulando certificados SEFAZ.");
+        }
 
         // 4. Salvar KeyStore no arquivo cacert
-        try (FileOutputStream fos = new FileOutputStream(cacertFile)) {
-            keyStore.store(fos, CACERT_PASSWORD.toCharArray());
-            System.out.println("\n✓ Arquivo 'cacert' criado com sucesso: " + cacertFile.getAbsolutePath());
-            System.out.println("✓ Total de certificados instalados: " + keyStore.size());
+        salvar(keyStore, cacertFile);
+        System.out.println("\n✓ Arquivo 'cacert' criado com sucesso: " + cacertFile.getAbsolutePath());
+        System.out.println("✓ Total de certificados instalados: " + keyStore.size());
+    }
+
+    /**
+     * Carrega o arquivo cacert (somente os certificados próprios, sem os da JVM) ou, se ele não
+     * existir, um KeyStore vazio.
+     */
+    public static KeyStore carregarCacert(File cacertFile) throws Exception {
+        if (!cacertFile.exists()) {
+            return loadTrustStore(null, false);
+        }
+        try (FileInputStream fis = new FileInputStream(cacertFile)) {
+            return loadTrustStore(fis, false);
         }
     }
 
-    private static void downloadIcpBrasilCertificates(KeyStore keyStore) {
+    /**
+     * Grava o KeyStore num arquivo temporário e o move sobre o cacert, para que nenhum leitor
+     * encontre o arquivo pela metade.
+     */
+    public static void salvar(KeyStore keyStore, File cacertFile) throws Exception {
+        File parent = cacertFile.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("cacert", ".tmp", parent);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp)) {
+                keyStore.store(fos, CACERT_PASSWORD.toCharArray());
+            }
+            Files.move(temp.toPath(), cacertFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Indica se o truststore já contém as raízes ICP-Brasil.
+     */
+    public static boolean possuiRaizesIcpBrasil(KeyStore keyStore) throws KeyStoreException {
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            if (aliases.nextElement().startsWith("icp-brasil-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void downloadIcpBrasilCertificates(KeyStore keyStore) {
         CertificateFactory cf;
         try {
             cf = CertificateFactory.getInstance("X.509");
@@ -80,9 +148,11 @@ public class CacertUtil {
         for (String urlString : ICP_BRASIL_URLS) {
             try {
                 System.out.println("Baixando: " + urlString);
-                URL certUrl = new URL(urlString);
+                URLConnection connection = new URL(urlString).openConnection();
+                connection.setConnectTimeout(TIMEOUT_MS);
+                connection.setReadTimeout(TIMEOUT_MS);
                 
-                try (InputStream in = certUrl.openStream()) {
+                try (InputStream in = connection.getInputStream()) {
                     X509Certificate cert = (X509Certificate) cf.generateCertificate(in);
                     String alias = "icp-brasil-" + extractFilename(urlString);
                     keyStore.setCertificateEntry(alias, cert);
@@ -94,68 +164,191 @@ public class CacertUtil {
         }
     }
 
-    private static void extractSefazCertificates(KeyStore keyStore, String iniFilePath) {
-        File iniFile = new File(iniFilePath);
-        if (!iniFile.exists()) {
-            System.err.println("AVISO: Arquivo sefaz-urls.ini não encontrado. Pulando certificados SEFAZ.");
-            return;
+    /**
+     * Extrai as cadeias de todos os hosts em paralelo (no máximo {@code paralelismo} conexões
+     * simultâneas) e atualiza o KeyStore apenas para os hosts cuja cadeia mudou.
+     *
+     * Cada host tem conexão e leitura limitadas a {@code timeoutPorHostMs}; hosts que não
+     * responderem até {@code prazoTotalMs} são contados como falha e mantêm a cadeia já instalada.
+     * Uma cadeia que substituiria a já instalada só é aceita se validar contra o truststore atual
+     * (raízes ICP-Brasil e cadeias já confiáveis); caso contrário o host conta como falha.
+     *
+     * @param hosts hosts no formato {@code host} (porta 443) ou {@code host:porta}
+     */
+    public static ResultadoAtualizacao atualizarCadeiasSefaz(KeyStore keyStore, Collection<String> hosts, int paralelismo,
+                                                             int timeoutPorHostMs, long prazoTotalMs) throws Exception {
+        System.out.println("Total de hosts únicos encontrados: " + hosts.size());
+        if (hosts.isEmpty()) {
+            return new ResultadoAtualizacao(0, 0, 0, 0);
         }
 
-        // Usar Set para evitar hosts duplicados
-        Set<String> hosts = extractUniqueHosts(iniFile);
-        System.out.println("Total de hosts únicos encontrados: " + hosts.size());
+        // 1. Extrair as cadeias em paralelo, com threads daemon para não segurar o encerramento da JVM
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(paralelismo, hosts.size())), runnable -> {
+            Thread thread = new Thread(runnable, "cacert-probe-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<String> ordem = new ArrayList<>(hosts);
+        List<Future<X509Certificate[]>> futures;
+        try {
+            List<Callable<X509Certificate[]>> tarefas = new ArrayList<>();
+            for (String host : ordem) {
+                tarefas.add(() -> extrairCadeia(host, timeoutPorHostMs));
+            }
+            futures = executor.invokeAll(tarefas, prazoTotalMs, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
 
-        int sucessos = 0;
+        // 2. Aplicar somente as cadeias diferentes das instaladas, validando as substituições contra
+        //    as âncoras de antes desta atualização (uma cadeia nova não avaliza a de outro host)
+        Set<TrustAnchor> ancoras = ancorasConfiaveis(keyStore);
+        int alterados = 0;
+        int inalterados = 0;
         int falhas = 0;
-
-        for (String host : hosts) {
-            try {
-                System.out.println("Extraindo certificados de: " + host);
-                
-                // Usar SavingTrustManager para capturar certificados mesmo com handshake failure
-                SSLContext context = SSLContext.getInstance("TLS");
-                SavingTrustManager trustManager = new SavingTrustManager(keyStore);
-                context.init(null, new TrustManager[]{trustManager}, null);
-                SSLSocketFactory factory = context.getSocketFactory();
-
-                SSLSocket socket = (SSLSocket) factory.createSocket(host, PORTA_SSL);
-                socket.setSoTimeout(TIMEOUT_MS);
-                
+        for (int i = 0; i < ordem.size(); i++) {
+            String host = ordem.get(i);
+            Future<X509Certificate[]> future = futures.get(i);
+            X509Certificate[] chain = null;
+            String erro = "prazo esgotado";
+            if (!future.isCancelled()) {
                 try {
-                    socket.startHandshake();
-                } catch (SSLException e) {
-                    // Esperado - capturamos os certificados no SavingTrustManager
-                } finally {
-                    socket.close();
+                    chain = future.get();
+                } catch (ExecutionException e) {
+                    erro = e.getCause().getMessage();
                 }
+            }
 
-                // Adicionar certificados capturados ao KeyStore
-                X509Certificate[] chain = trustManager.getChain();
-                if (chain != null && chain.length > 0) {
-                    for (int i = 0; i < chain.length; i++) {
-                        String alias = "sefaz-" + host.replace(".", "_") + "-cert" + i;
-                        if (!keyStore.containsAlias(alias)) {
-                            keyStore.setCertificateEntry(alias, chain[i]);
-                            System.out.println("  ✓ Certificado " + i + ": " + 
-                                chain[i].getSubjectX500Principal().getName().split(",")[0]);
-                        }
+            if (chain == null || chain.length == 0) {
+                System.err.println("  ✗ " + host + ": " + (chain == null ? erro : "Nenhum certificado obtido"));
+                falhas++;
+            } else {
+                try {
+                    if (aplicarCadeia(keyStore, host, chain, ancoras)) {
+                        System.out.println("  ✓ " + host + ": cadeia atualizada (" +
+                                chain[0].getSubjectX500Principal().getName().split(",")[0] + ")");
+                        alterados++;
+                    } else {
+                        inalterados++;
                     }
-                    sucessos++;
-                } else {
-                    System.err.println("  ✗ Nenhum certificado obtido");
+                } catch (CertificateException e) {
+                    System.err.println("  ✗ " + host + ": " + e.getMessage());
                     falhas++;
                 }
+            }
+        }
 
-            } catch (Exception e) {
-                System.err.println("  ✗ Erro: " + e.getMessage());
-                falhas++;
+        System.out.println("\nResumo: " + alterados + " alterados, " + inalterados + " inalterados, " + falhas + " falhas");
+        return new ResultadoAtualizacao(ordem.size(), alterados, inalterados, falhas);
+    }
+
+    /**
+     * Captura a cadeia apresentada pelo host, mesmo que o handshake falhe (mTLS obrigatório).
+     */
+    public static X509Certificate[] extrairCadeia(String hostPorta, int timeoutMs) throws Exception {
+        String host = hostPorta;
+        int porta = PORTA_SSL;
+        int separador = hostPorta.lastIndexOf(':');
+        if (separador > 0) {
+            host = hostPorta.substring(0, separador);
+            porta = Integer.parseInt(hostPorta.substring(separador + 1));
+        }
+
+        // Usar SavingTrustManager para capturar certificados mesmo com handshake failure
+        SSLContext context = SSLContext.getInstance("TLS");
+        SavingTrustManager trustManager = new SavingTrustManager();
+        context.init(null, new TrustManager[]{trustManager}, null);
+
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket()) {
+            socket.connect(new InetSocketAddress(host, porta), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            try {
+                socket.startHandshake();
+            } catch (SSLException e) {
+                // Esperado - capturamos os certificados no SavingTrustManager
             }
         }
+        return trustManager.getChain();
+    }
+
+    /**
+     * Substitui os certificados do host no KeyStore se a cadeia for diferente da instalada.
+     * Retorna {@code false} quando a cadeia já era a mesma.
+     *
+     * Um host sem cadeia instalada recebe a apresentada. Já a substituição de uma cadeia instalada
+     * exige que a nova valide (PKIX) contra {@code ancoras}: sem isso, quem estivesse no caminho da
+     * conexão durante uma atualização teria o próprio certificado instalado como confiável.
+     *
+     * @throws CertificateException se a cadeia nova não validar contra as âncoras
+     */
+    public static boolean aplicarCadeia(KeyStore keyStore, String host, X509Certificate[] chain, Set<TrustAnchor> ancoras)
+            throws KeyStoreException, CertificateException {
+        String prefixo = "sefaz-" + host.replace(".", "_").replace(":", "_") + "-cert";
+
+        // 1. Comparar com a cadeia instalada
+        boolean instalada = keyStore.containsAlias(prefixo + 0);
+        boolean igual = !keyStore.containsAlias(prefixo + chain.length);
+        for (int i = 0; igual && i < chain.length; i++) {
+            igual = chain[i].equals(keyStore.getCertificate(prefixo + i));
+        }
+        if (igual) {
+            return false;
+        }
+        if (instalada) {
+            validarCadeia(chain, ancoras);
+        }
 
-        System.out.println("\nResumo: " + sucessos + " sucessos, " + falhas + " falhas");
+        // 2. Remover a cadeia antiga do host e instalar a nova
+        for (int i = 0; keyStore.containsAlias(prefixo + i); i++) {
+            keyStore.deleteEntry(prefixo + i);
+        }
+        for (int i = 0; i < chain.length; i++) {
+            keyStore.setCertificateEntry(prefixo + i, chain[i]);
+        }
+        return true;
     }
 
-    private static Set<String> extractUniqueHosts(File iniFile) {
+    /**
+     * Âncoras de confiança atuais do truststore (todas as entradas de certificado).
+     */
+    public static Set<TrustAnchor> ancorasConfiaveis(KeyStore keyStore) throws KeyStoreException {
+        Set<TrustAnchor> ancoras = new HashSet<>();
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (keyStore.isCertificateEntry(alias) && keyStore.getCertificate(alias) instanceof X509Certificate cert) {
+                ancoras.add(new TrustAnchor(cert, null));
+            }
+        }
+        return ancoras;
+    }
+
+    // Validação PKIX da cadeia do servidor, sem consulta de revogação (a atualização roda sem rede garantida)
+    private static void validarCadeia(X509Certificate[] chain, Set<TrustAnchor> ancoras) throws CertificateException {
+        if (ancoras.isEmpty()) {
+            throw new CertificateException("cadeia diferente da instalada e nenhuma âncora para validá-la");
+        }
+        // A raiz autoassinada, se enviada pelo servidor, não faz parte do caminho a validar
+        List<X509Certificate> caminho = new ArrayList<>(Arrays.asList(chain));
+        while (caminho.size() > 1 && caminho.get(caminho.size() - 1).getSubjectX500Principal()
+                .equals(caminho.get(caminho.size() - 1).getIssuerX500Principal())) {
+            caminho.remove(caminho.size() - 1);
+        }
+        try {
+            PKIXParameters parametros = new PKIXParameters(ancoras);
+            parametros.setRevocationEnabled(false);
+            CertPathValidator.getInstance("PKIX").validate(
+                    CertificateFactory.getInstance("X.509").generateCertPath(caminho), parametros);
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("cadeia diferente da instalada e não confiável, mantida a anterior: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Hosts HTTPS do sefaz-urls.ini, sem repetição; portas diferentes de 443 vêm como {@code host:porta}.
+     */
+    public static Set<String> extractUniqueHosts(File iniFile) {
         Set<String> hosts = new LinkedHashSet<>(); // Mantém ordem de inserção
         
         try (BufferedReader reader = new BufferedReader(new FileReader(iniFile))) {
@@ -175,7 +368,8 @@ public class CacertUtil {
                     if (url.startsWith("https://")) {
                         try {
                             URL parsedUrl = new URL(url);
-                            hosts.add(parsedUrl.getHost()); // Adiciona apenas o host
+                            int port = parsedUrl.getPort();
+                            hosts.add(port == -1 || port == PORTA_SSL ? parsedUrl.getHost() : parsedUrl.getHost() + ":" + port);
                         } catch (Exception e) {
                             System.err.println("URL inválida ignorada: " + url);
                         }
@@ -197,63 +391,79 @@ public class CacertUtil {
         return filename.toLowerCase();
     }
 
+    // TrustManagers combinados, montados na primeira chamada e reutilizados nas seguintes
+    private static volatile TrustManager[] trustManagers;
+
     /**
-     * Retorna TrustManagers que combinam o cacert customizado com o truststore padrão da JVM
+     * Retorna TrustManagers que combinam o cacert customizado com o truststore padrão da JVM.
+     * Na aplicação, os SSLContext usam o TrustManager compartilhado do TrustStoreManager.
      */
     public static TrustManager[] getTrustManagers() throws Exception {
-        File cacertFile = new File(CACERT_FILE_NAME);
-        
-        // 1. Carregar cacert customizado
-        KeyStore customTrustStore = KeyStore.getInstance("JKS");
-        if (cacertFile.exists()) {
-            try (FileInputStream fis = new FileInputStream(cacertFile)) {
-                customTrustStore.load(fis, CACERT_PASSWORD.toCharArray());
+        TrustManager[] cached = trustManagers;
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (CacertUtil.class) {
+            if (trustManagers == null) {
+                File cacertFile = new File(CACERT_FILE_NAME);
+                KeyStore combinedTrustStore;
+                if (cacertFile.exists()) {
+                    try (FileInputStream fis = new FileInputStream(cacertFile)) {
+                        combinedTrustStore = loadTrustStore(fis, true);
+                    }
+                } else {
+                    System.err.println("AVISO: cacert não encontrado. Usando apenas truststore da JVM.");
+                    combinedTrustStore = loadTrustStore(null, true);
+                }
+
+                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                tmf.init(combinedTrustStore);
+                trustManagers = tmf.getTrustManagers();
             }
-        } else {
-            System.err.println("AVISO: cacert não encontrado. Usando apenas truststore da JVM.");
-            customTrustStore.load(null, CACERT_PASSWORD.toCharArray());
+            return trustManagers;
+        }
+    }
+
+    /**
+     * Carrega o cacert (se informado) num KeyStore novo e, opcionalmente, acrescenta os
+     * certificados do truststore padrão da JVM com o prefixo "jvm-".
+     */
+    public static KeyStore loadTrustStore(InputStream cacert, boolean includeJvmCacerts) throws Exception {
+        // 1. Carregar cacert customizado
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(cacert, CACERT_PASSWORD.toCharArray());
+        if (!includeJvmCacerts) {
+            return trustStore;
         }
 
         // 2. Carregar truststore padrão da JVM
         KeyStore defaultTrustStore = KeyStore.getInstance(KeyStore.getDefaultType());
         String javaHome = System.getProperty("java.home");
         String cacertsPath = javaHome + "/lib/security/cacerts";
-        
+
         try (FileInputStream fis = new FileInputStream(cacertsPath)) {
             defaultTrustStore.load(fis, "changeit".toCharArray());
         }
 
-        // 3. Combinar ambos os truststores
-        KeyStore combinedTrustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        combinedTrustStore.load(null, null);
-
-        // Adicionar certificados customizados
-        Enumeration<String> aliases = customTrustStore.aliases();
-        while (aliases.hasMoreElements()) {
-            String alias = aliases.nextElement();
-            Certificate cert = customTrustStore.getCertificate(alias);
-            if (cert != null) {
-                combinedTrustStore.setCertificateEntry(alias, cert);
-            }
-        }
+        // 3. Combinar ambos (evitando duplicatas)
+        copyCertificates(defaultTrustStore, trustStore, "jvm-");
+        return trustStore;
+    }
 
-        // Adicionar certificados da JVM (evitando duplicatas)
-        aliases = defaultTrustStore.aliases();
+    /**
+     * Copia os certificados de {@code source} para {@code target}, sem sobrescrever aliases existentes.
+     */
+    public static void copyCertificates(KeyStore source, KeyStore target, String aliasPrefix) throws KeyStoreException {
+        Enumeration<String> aliases = source.aliases();
         while (aliases.hasMoreElements()) {
             String alias = aliases.nextElement();
-            if (!combinedTrustStore.containsAlias(alias)) {
-                Certificate cert = defaultTrustStore.getCertificate(alias);
+            if (!target.containsAlias(alias) && !target.containsAlias(aliasPrefix + alias)) {
+                Certificate cert = source.getCertificate(alias);
                 if (cert != null) {
-                    combinedTrustStore.setCertificateEntry("jvm-" + alias, cert);
+                    target.setCertificateEntry(aliasPrefix + alias, cert);
                 }
             }
         }
-
-        // 4. Criar TrustManagerFactory
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init(combinedTrustStore);
-
-        return tmf.getTrustManagers();
     }
 
     /**
@@ -261,14 +471,7 @@ public class CacertUtil {
      * mesmo quando o handshake falha (útil para servidores com mTLS obrigatório)
      */
     private static class SavingTrustManager implements X509TrustManager {
-        private final X509TrustManager defaultTrustManager;
-        private X509Certificate[] chain;
-
-        public SavingTrustManager(KeyStore keyStore) throws Exception {
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init(keyStore);
-            this.defaultTrustManager = (X509TrustManager) tmf.getTrustManagers()[0];
-        }
+        private volatile X509Certificate[] chain;
 
         public X509Certificate[] getChain() {
             return chain;
@@ -285,13 +488,9 @@ public class CacertUtil {
         }
 
         @Override
-        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-            this.chain = chain; // Captura a cadeia ANTES de validar
-            try {
-                this.defaultTrustManager.checkServerTrusted(chain, authType);
-            } catch (CertificateException e) {
-                // Ignora erro de validação - já capturamos os certificados
-            }
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            // Apenas captura a cadeia; a confiança é decidida pelo truststore montado com ela
+            this.chain = chain;
         }
     }
 }
@@ -0,0 +1,40 @@
+package tech.vcinf.fiscalwebsocket.util;
+
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Envelope SOAP pré-renderizado para um (serviço, cUF, versaoDados): cabeçalho e abertura do corpo
+ * ficam em {@code prefix}, o fechamento em {@code suffix}, ambos já codificados em UTF-8.
+ * O XML de dados é escrito entre os dois diretamente no corpo da requisição HTTP.
+ */
+public final class SoapEnvelope {
+
+    public static final String CONTENT_TYPE = "application/soap+xml; charset=utf-8";
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    SoapEnvelope(String prefix, String suffix) {
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Corpo para o java.net.http.HttpClient: os três trechos são publicados em sequência, sem concatenação.
+     */
+    public HttpRequest.BodyPublisher toBodyPublisher(String xml) {
+        return HttpRequest.BodyPublishers.concat(
+                HttpRequest.BodyPublishers.ofByteArray(prefix),
+                HttpRequest.BodyPublishers.ofString(xml, StandardCharsets.UTF_8),
+                HttpRequest.BodyPublishers.ofByteArray(suffix));
+    }
+
+    public String wrap(String xml) {
+        StringBuilder envelope = new StringBuilder(prefix.length + xml.length() + suffix.length);
+        envelope.append(new String(prefix, StandardCharsets.UTF_8));
+        envelope.append(xml);
+        envelope.append(new String(suffix, StandardCharsets.UTF_8));
+        return envelope.toString();
+    }
+}
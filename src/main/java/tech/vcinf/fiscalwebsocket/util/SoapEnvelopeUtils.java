@@ -1,35 +1,118 @@
 package tech.vcinf.fiscalwebsocket.util;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
 public class SoapEnvelopeUtils {
 
-    private static final String SOAP_HEADER = "<soap:Header><nfeCabecMsg xmlns=\"http://www.portalfiscal.inf.br/nfe/wsdl/%s\"><cUF>%s</cUF><versaoDados>%s</versaoDados></nfeCabecMsg></soap:Header>";
-    private static final String SOAP_BODY_START = "<soap:Body><nfeDadosMsg xmlns=\"http://www.portalfiscal.inf.br/nfe/wsdl/%s\">";
-    private static final String SOAP_BODY_END = "</nfeDadosMsg></soap:Body>";
-    private static final String SOAP_ENVELOPE = "<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\">%s%s</soap:Envelope>";
+    private static final String NFE_WSDL = "http://www.portalfiscal.inf.br/nfe/wsdl/";
+    private static final String MDFE_WSDL = "http://www.portalfiscal.inf.br/mdfe/wsdl/";
 
-    public static String createEnvelope(String xml, String service, String uf) {
-        switch (service) {
-            case "NFeStatusServico4":
-                return buildStatusServicoEnvelope(xml, uf, service);
-            case "NFeAutorizacao4":
-                return buildAutorizacaoLoteEnvelope(xml, uf, service);
-            // Add other services here
-            default:
-                throw new IllegalArgumentException("Unknown service: " + service);
+    private static final String SOAP_PREFIX = "<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\">" +
+            "<soap:Header><%1$sCabecMsg xmlns=\"%2$s\"><cUF>%3$s</cUF><versaoDados>%4$s</versaoDados></%1$sCabecMsg></soap:Header>" +
+            "<soap:Body><%1$sDadosMsg xmlns=\"%2$s\">";
+    private static final String SOAP_SUFFIX = "</%1$sDadosMsg></soap:Body></soap:Envelope>";
+
+    // Versões de leiaute: "4.00", "1.00"... Qualquer outra coisa não vai para o cabeçalho
+    private static final Pattern VERSAO_DADOS = Pattern.compile("\\d{1,2}\\.\\d{2}");
+
+    /**
+     * Definição de um serviço SOAP: prefixo das tags (nfe/mdfe), namespace WSDL e versão padrão dos dados.
+     */
+    private record ServiceDefinition(String tagPrefix, String namespace, String versaoDados) {}
+
+    // Chave "<MODELO>.<SERVICO>", mesmos nomes de serviço do sefaz-urls.ini
+    private static final Map<String, ServiceDefinition> SERVICES = new HashMap<>();
+
+    // Aliases pelo nome do web service, aceitos pela API anterior
+    private static final Map<String, String> SERVICE_ALIASES = Map.of(
+            "NFeStatusServico4", "STATUS",
+            "NFeAutorizacao4", "AUTORIZACAO"
+    );
+
+    // Envelopes já renderizados: "<MODELO>.<SERVICO>.<cUF>". Só a versão padrão do serviço e UFs
+    // conhecidas entram no cache, para que valores vindos do cliente não façam o mapa crescer.
+    private static final Map<String, SoapEnvelope> ENVELOPE_CACHE = new ConcurrentHashMap<>();
+
+    static {
+        for (String modelo : new String[]{"NFE", "NFCE"}) {
+            nfe(modelo, "STATUS", "NFeStatusServico4", "4.00");
+            nfe(modelo, "AUTORIZACAO", "NFeAutorizacao4", "4.00");
+            nfe(modelo, "RET_AUTORIZACAO", "NFeRetAutorizacao4", "4.00");
+            nfe(modelo, "CONSULTA", "NFeConsultaProtocolo4", "4.00");
+            nfe(modelo, "INUTILIZACAO", "NFeInutilizacao4", "4.00");
+            nfe(modelo, "CONSULTA_CADASTRO", "CadConsultaCadastro4", "2.00");
+            nfe(modelo, "EVENTO", "NFeRecepcaoEvento4", "1.00");
+        }
+
+        mdfe("STATUS", "MDFeStatusServico");
+        mdfe("AUTORIZACAO", "MDFeRecepcaoSinc");
+        mdfe("CONSULTA", "MDFeConsulta");
+        mdfe("EVENTO", "MDFeRecepcaoEvento");
+        mdfe("CONS_NAO_ENC", "MDFeConsNaoEnc");
+        mdfe("DISTRIBUICAO_DFE", "MDFeDistribuicaoDFe");
+    }
+
+    private static void nfe(String modelo, String servico, String webService, String versaoDados) {
+        SERVICES.put(modelo + "." + servico, new ServiceDefinition("nfe", NFE_WSDL + webService, versaoDados));
+    }
+
+    private static void mdfe(String servico, String webService) {
+        SERVICES.put("MDFE." + servico, new ServiceDefinition("mdfe", MDFE_WSDL + webService, "3.00"));
+    }
+
+    /**
+     * Retorna o envelope pré-renderizado do serviço. A versão dos dados é lida do atributo
+     * {@code versao} do XML quando presente; caso contrário, usa a versão padrão do serviço.
+     * Versões diferentes da padrão (ou UF não reconhecida) geram um envelope avulso, fora do cache.
+     *
+     * @throws IllegalArgumentException se o serviço for desconhecido, a UF não for uma sigla ou código
+     *                                  IBGE, ou a versão do XML não estiver no formato de versão de leiaute
+     */
+    public static SoapEnvelope getEnvelope(String modelo, String service, String uf, String xml) {
+        String servico = SERVICE_ALIASES.getOrDefault(service, service);
+        String modeloServico = (modelo == null ? "NFE" : modelo.toUpperCase()) + "." + servico;
+        ServiceDefinition definition = SERVICES.get(modeloServico);
+        if (definition == null) {
+            throw new IllegalArgumentException("Unknown service: " + modeloServico);
+        }
+
+        String cUF = Uf.codigoIbge(uf);
+        if (cUF == null) {
+            throw new IllegalArgumentException("UF inválida para o envelope SOAP: " + uf);
         }
+        String versaoDados = extractVersao(xml, definition.versaoDados());
+        if (!VERSAO_DADOS.matcher(versaoDados).matches()) {
+            throw new IllegalArgumentException("Atributo versao inválido no XML: " + versaoDados);
+        }
+        if (!versaoDados.equals(definition.versaoDados()) || Uf.of(uf) == null) {
+            return render(definition, cUF, versaoDados);
+        }
+        return ENVELOPE_CACHE.computeIfAbsent(modeloServico + "." + cUF, key -> render(definition, cUF, versaoDados));
+    }
+
+    private static SoapEnvelope render(ServiceDefinition definition, String cUF, String versaoDados) {
+        return new SoapEnvelope(
+                String.format(SOAP_PREFIX, definition.tagPrefix(), definition.namespace(), cUF, versaoDados),
+                String.format(SOAP_SUFFIX, definition.tagPrefix()));
     }
 
-    private static String buildStatusServicoEnvelope(String xml, String uf, String service) {
-        String versaoDados = "4.00"; // Version for NFeStatusServico4
-        String header = String.format(SOAP_HEADER, service, uf, versaoDados);
-        String body = String.format(SOAP_BODY_START, service) + xml + SOAP_BODY_END;
-        return String.format(SOAP_ENVELOPE, header, body);
+    public static String createEnvelope(String xml, String service, String uf) {
+        return getEnvelope("NFE", service, uf, xml).wrap(xml);
     }
 
-    private static String buildAutorizacaoLoteEnvelope(String xml, String uf, String service) {
-        String versaoDados = "4.00"; // Version for NFeAutorizacao4
-        String header = String.format(SOAP_HEADER, service, uf, versaoDados);
-        String body = String.format(SOAP_BODY_START, service) + xml + SOAP_BODY_END;
-        return String.format(SOAP_ENVELOPE, header, body);
+    private static String extractVersao(String xml, String defaultVersao) {
+        // O atributo versao fica na tag raiz, logo após a eventual declaração XML
+        int rootStart = xml.startsWith("<?") ? xml.indexOf("?>") + 2 : 0;
+        int rootEnd = xml.indexOf('>', rootStart);
+        int start = xml.indexOf("versao=\"", rootStart);
+        if (start < 0 || rootEnd < 0 || start > rootEnd) {
+            return defaultVersao;
+        }
+        start += "versao=\"".length();
+        int end = xml.indexOf('"', start);
+        return end > start ? xml.substring(start, end) : defaultVersao;
     }
 }
@@ -18,6 +18,18 @@ public class SocketFactoryDinamico implements SecureProtocolSocketFactory {
 
     public SocketFactoryDinamico(KeyStore keyStore, String alias, String senha,
                                  KeyStore cacert, String sslProtocol) throws Exception {
+        this(createSslContext(keyStore, senha, cacert, sslProtocol));
+    }
+
+    public SocketFactoryDinamico(SSLContext sslContext) {
+        this.sslSocketFactory = sslContext.getSocketFactory();
+    }
+
+    /**
+     * Cria o SSLContext mTLS do emitente, usado pelo transporte java.net.http.
+     */
+    public static SSLContext createSslContext(KeyStore keyStore, String senha,
+                                              KeyStore cacert, String sslProtocol) throws Exception {
         // Configurar KeyManagerFactory com o certificado do emitente
         KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
         kmf.init(keyStore, senha.toCharArray());
@@ -26,11 +38,14 @@ public class SocketFactoryDinamico implements SecureProtocolSocketFactory {
         TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
         tmf.init(cacert);
 
-        // Criar SSLContext
-        SSLContext sslContext = SSLContext.getInstance(sslProtocol);
-        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), new SecureRandom());
+        return createSslContext(kmf.getKeyManagers(), tmf.getTrustManagers(), sslProtocol);
+    }
 
-        this.sslSocketFactory = sslContext.getSocketFactory();
+    public static SSLContext createSslContext(KeyManager[] keyManagers, TrustManager[] trustManagers,
+                                              String sslProtocol) throws Exception {
+        SSLContext sslContext = SSLContext.getInstance(sslProtocol);
+        sslContext.init(keyManagers, trustManagers, new SecureRandom());
+        return sslContext;
     }
 
     @Override
@@ -0,0 +1,71 @@
+package tech.vcinf.fiscalwebsocket.util;
+
+/**
+ * Unidades Federativas com o código IBGE usado nos campos cUF/cOrgao dos leiautes fiscais.
+ */
+public enum Uf {
+    RO(11), AC(12), AM(13), RR(14), PA(15), AP(16), TO(17),
+    MA(21), PI(22), CE(23), RN(24), PB(25), PE(26), AL(27), SE(28), BA(29),
+    MG(31), ES(32), RJ(33), SP(35),
+    PR(41), SC(42), RS(43),
+    MS(50), MT(51), GO(52), DF(53);
+
+    // Busca sem alocação: sigla (duas letras) e código IBGE (dois dígitos) indexam tabelas planas
+    private static final Uf[] POR_SIGLA = new Uf[26 * 26];
+    private static final Uf[] POR_CODIGO = new Uf[100];
+
+    static {
+        for (Uf uf : values()) {
+            POR_SIGLA[(uf.name().charAt(0) - 'A') * 26 + uf.name().charAt(1) - 'A'] = uf;
+            POR_CODIGO[uf.codigo] = uf;
+        }
+    }
+
+    private final int codigo;
+    private final String codigoTexto;
+
+    Uf(int codigo) {
+        this.codigo = codigo;
+        this.codigoTexto = String.valueOf(codigo);
+    }
+
+    public int getCodigo() {
+        return codigo;
+    }
+
+    public String getCodigoTexto() {
+        return codigoTexto;
+    }
+
+    /**
+     * Converte a sigla (ex.: "MT") no código IBGE ("51"). Códigos numéricos (ex.: 91, Ambiente
+     * Nacional) são devolvidos como recebidos; {@code null} se não for uma UF nem um código.
+     */
+    public static String codigoIbge(String siglaOuCodigo) {
+        if (siglaOuCodigo != null && !siglaOuCodigo.isEmpty() && siglaOuCodigo.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            return siglaOuCodigo;
+        }
+        Uf uf = of(siglaOuCodigo);
+        return uf != null ? uf.codigoTexto : null;
+    }
+
+    /**
+     * Resolve a sigla (maiúscula ou minúscula) ou o código IBGE; {@code null} se não for uma UF.
+     */
+    public static Uf of(String siglaOuCodigo) {
+        if (siglaOuCodigo == null || siglaOuCodigo.length() != 2) {
+            return null;
+        }
+        char c0 = siglaOuCodigo.charAt(0);
+        char c1 = siglaOuCodigo.charAt(1);
+        if (c0 >= '0' && c0 <= '9' && c1 >= '0' && c1 <= '9') {
+            return POR_CODIGO[(c0 - '0') * 10 + c1 - '0'];
+        }
+        c0 = Character.toUpperCase(c0);
+        c1 = Character.toUpperCase(c1);
+        if (c0 < 'A' || c0 > 'Z' || c1 < 'A' || c1 > 'Z') {
+            return null;
+        }
+        return POR_SIGLA[(c0 - 'A') * 26 + c1 - 'A'];
+    }
+}
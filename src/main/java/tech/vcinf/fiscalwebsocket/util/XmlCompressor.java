@@ -0,0 +1,124 @@
+package tech.vcinf.fiscalwebsocket.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressão dos XMLs fiscais armazenados (deflate com dicionário pré-definido).
+ *
+ * Formato: 1 byte de versão, 4 bytes com o tamanho original em UTF-8 e o fluxo deflate (zlib).
+ * O dicionário contém os trechos que se repetem em todo documento NF-e/MDF-e (namespaces, tags,
+ * assinatura, envelope SOAP), o que melhora bastante a taxa em documentos pequenos como
+ * retornos de status e eventos. Alterar o dicionário exige uma nova versão de formato.
+ */
+public final class XmlCompressor {
+
+    private static final byte FORMAT_DEFLATE_DICT_V1 = 1;
+    private static final int HEADER_LENGTH = 5;
+
+    // Deflate dá preferência às referências mais próximas: os trechos mais frequentes ficam no final
+    private static final byte[] DICTIONARY_V1 = (
+            "<retConsSitNFe><retConsStatServ><retEnviNFe><retEvento><retEnvEvento><retInutNFe><retConsCad>" +
+            "<infCons><infCad><xMotivo>Rejeicao: </xMotivo><dhRecbto></dhRecbto><tMed></tMed><dhRetorno></dhRetorno>" +
+            "<verAplic>SVRS</verAplic><nProt></nProt><digVal></digVal><procEventoNFe versao=\"1.00\">" +
+            "<evento versao=\"1.00\"><infEvento Id=\"ID\"><cOrgao></cOrgao><tpEvento></tpEvento><nSeqEvento></nSeqEvento>" +
+            "<verEvento>1.00</verEvento><detEvento versao=\"1.00\"><descEvento></descEvento><xJust></xJust></detEvento>" +
+            "<chNFe></chNFe><dhEvento></dhEvento><xCorrecao></xCorrecao><xCondUso></xCondUso>" +
+            "<det nItem=\"\"><prod><cProd></cProd><cEAN>SEM GTIN</cEAN><xProd></xProd><NCM></NCM><CFOP></CFOP>" +
+            "<uCom>UN</uCom><qCom></qCom><vUnCom></vUnCom><vProd></vProd><cEANTrib>SEM GTIN</cEANTrib><uTrib>UN</uTrib>" +
+            "<qTrib></qTrib><vUnTrib></vUnTrib><indTot>1</indTot></prod><imposto><vTotTrib></vTotTrib><ICMS><ICMSSN102>" +
+            "<orig>0</orig><CSOSN></CSOSN></ICMSSN102><ICMS00><modBC></modBC><vBC></vBC><pICMS></pICMS><vICMS></vICMS></ICMS00>" +
+            "</ICMS><PIS><PISOutr><CST></CST><vBC></vBC><pPIS></pPIS><vPIS></vPIS></PISOutr></PIS><COFINS><COFINSOutr>" +
+            "<vCOFINS></vCOFINS></COFINSOutr></COFINS></imposto></det><total><ICMSTot><vBC></vBC><vICMS></vICMS>" +
+            "<vICMSDeson></vICMSDeson><vFCP></vFCP><vBCST></vBCST><vST></vST><vFCPST></vFCPST><vFCPSTRet></vFCPSTRet>" +
+            "<vProd></vProd><vFrete></vFrete><vSeg></vSeg><vDesc></vDesc><vII></vII><vIPI></vIPI><vIPIDevol></vIPIDevol>" +
+            "<vPIS></vPIS><vCOFINS></vCOFINS><vOutro></vOutro><vNF></vNF></ICMSTot></total><transp><modFrete>9</modFrete>" +
+            "</transp><pag><detPag><tPag></tPag><vPag></vPag></detPag></pag><infAdic><infCpl></infCpl></infAdic>" +
+            "<ide><cUF></cUF><cNF></cNF><natOp>VENDA</natOp><mod>55</mod><serie></serie><nNF></nNF><dhEmi></dhEmi>" +
+            "<tpNF>1</tpNF><idDest>1</idDest><cMunFG></cMunFG><tpImp>1</tpImp><tpEmis>1</tpEmis><cDV></cDV>" +
+            "<finNFe>1</finNFe><indFinal>1</indFinal><indPres>1</indPres><procEmi>0</procEmi><verProc></verProc></ide>" +
+            "<emit><CNPJ></CNPJ><xNome></xNome><xFant></xFant><enderEmit><xLgr></xLgr><nro></nro><xBairro></xBairro>" +
+            "<cMun></cMun><xMun></xMun><UF></UF><CEP></CEP><cPais>1058</cPais><xPais>BRASIL</xPais><fone></fone>" +
+            "</enderEmit><IE></IE><CRT></CRT></emit><dest><CPF></CPF><enderDest></enderDest><indIEDest>9</indIEDest></dest>" +
+            "<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\" " +
+            "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\">" +
+            "<soap:Body><nfeResultMsg xmlns=\"http://www.portalfiscal.inf.br/nfe/wsdl/\"></nfeResultMsg></soap:Body></soap:Envelope>" +
+            "<Signature xmlns=\"http://www.w3.org/2000/09/xmldsig#\"><SignedInfo>" +
+            "<CanonicalizationMethod Algorithm=\"http://www.w3.org/TR/2001/REC-xml-c14n-20010315\"/>" +
+            "<SignatureMethod Algorithm=\"http://www.w3.org/2000/09/xmldsig#rsa-sha1\"/><Reference URI=\"#\"><Transforms>" +
+            "<Transform Algorithm=\"http://www.w3.org/2000/09/xmldsig#enveloped-signature\"/>" +
+            "<Transform Algorithm=\"http://www.w3.org/TR/2001/REC-xml-c14n-20010315\"/></Transforms>" +
+            "<DigestMethod Algorithm=\"http://www.w3.org/2000/09/xmldsig#sha1\"/><DigestValue></DigestValue></Reference>" +
+            "</SignedInfo><SignatureValue></SignatureValue><KeyInfo><X509Data><X509Certificate></X509Certificate>" +
+            "</X509Data></KeyInfo></Signature>" +
+            "<protNFe versao=\"4.00\"><infProt><tpAmb>2</tpAmb><verAplic></verAplic><chNFe></chNFe><dhRecbto></dhRecbto>" +
+            "<nProt></nProt><digVal></digVal><cStat></cStat><xMotivo></xMotivo></infProt></protNFe>" +
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><nfeProc xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"4.00\">" +
+            "<NFe xmlns=\"http://www.portalfiscal.inf.br/nfe\"><infNFe versao=\"4.00\" Id=\"NFe\">" +
+            "<tpAmb>2</tpAmb><cUF></cUF><cStat></cStat><xMotivo></xMotivo> versao=\"4.00\" xmlns=\"http://www.portalfiscal.inf.br/nfe\">"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private XmlCompressor() {
+    }
+
+    public static byte[] compress(String xml) {
+        if (xml == null) {
+            return null;
+        }
+        byte[] input = xml.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setDictionary(DICTIONARY_V1);
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + input.length / 4 + 64);
+            out.write(FORMAT_DEFLATE_DICT_V1);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(input.length).array());
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static String decompress(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.length < HEADER_LENGTH || data[0] != FORMAT_DEFLATE_DICT_V1) {
+            throw new IllegalArgumentException("Formato de XML compactado desconhecido");
+        }
+        int originalLength = ByteBuffer.wrap(data, 1, 4).getInt();
+        byte[] output = new byte[originalLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+            int offset = 0;
+            while (offset < originalLength) {
+                int count = inflater.inflate(output, offset, originalLength - offset);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY_V1);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new IllegalArgumentException("XML compactado truncado");
+                    }
+                }
+                offset += count;
+            }
+            return new String(output, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("XML compactado corrompido", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package tech.vcinf.fiscalwebsocket.builder;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XmlTemplateTest {
+
+    private static final XmlTemplate CONS_SIT = XmlTemplate.compile(
+            "<consSitNFe versao=\"{versao}\"><tpAmb>{tpAmb}</tpAmb><xServ>CONSULTAR</xServ><chNFe>{chNFe}</chNFe></consSitNFe>");
+
+    @Test
+    void substituiOsMarcadoresNaOrdem() {
+        String xml = CONS_SIT.render("4.00", 2, "35240100000000000191550010000000011000000010");
+
+        assertEquals("<consSitNFe versao=\"4.00\"><tpAmb>2</tpAmb><xServ>CONSULTAR</xServ>"
+                + "<chNFe>35240100000000000191550010000000011000000010</chNFe></consSitNFe>", xml);
+    }
+
+    @Test
+    void escapaOsCaracteresEspeciaisDosValores() {
+        XmlTemplate template = XmlTemplate.compile("<xJust a=\"{atributo}\">{texto}</xJust>");
+
+        String xml = template.render("\"x\" & 'y'", "<b>Tom & Jerry</b> 'ok' \"ok\"");
+
+        assertEquals("<xJust a=\"&quot;x&quot; &amp; &apos;y&apos;\">"
+                + "&lt;b&gt;Tom &amp; Jerry&lt;/b&gt; &apos;ok&apos; &quot;ok&quot;</xJust>", xml);
+    }
+
+    @Test
+    void naoEscapaOTextoFixoDoTemplate() {
+        XmlTemplate template = XmlTemplate.compile("<?xml version=\"1.0\"?><a>&amp;{valor}</a>");
+
+        assertEquals("<?xml version=\"1.0\"?><a>&amp;1</a>", template.render(1));
+    }
+
+    @Test
+    void valorNuloViraTextoVazio() {
+        XmlTemplate template = XmlTemplate.compile("<a>{a}</a><b>{b}</b>");
+
+        assertEquals("<a></a><b>x</b>", template.render(null, "x"));
+    }
+
+    @Test
+    void templateSemMarcadoresRenderizaOTextoFixo() {
+        XmlTemplate template = XmlTemplate.compile("<consStatServ/>");
+
+        assertEquals("<consStatServ/>", template.render());
+    }
+
+    @Test
+    void recusaQuantidadeDeValoresDiferenteDosMarcadores() {
+        IllegalArgumentException faltando = assertThrows(IllegalArgumentException.class,
+                () -> CONS_SIT.render("4.00", 2));
+        assertTrue(faltando.getMessage().contains("espera 3 valores"), faltando.getMessage());
+        assertTrue(faltando.getMessage().contains("[versao, tpAmb, chNFe]"), faltando.getMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> CONS_SIT.render("4.00", 2, "chave", "extra"));
+    }
+
+    @Test
+    void recusaMarcadorNaoFechado() {
+        assertThrows(IllegalArgumentException.class, () -> XmlTemplate.compile("<a>{valor</a>"));
+    }
+}
@@ -0,0 +1,166 @@
+package tech.vcinf.fiscalwebsocket.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import tech.vcinf.fiscalwebsocket.model.Emitente;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XmlSignatureServiceTest {
+
+    private static final String SENHA = "teste123";
+    private static final String NFE_NS = "http://www.portalfiscal.inf.br/nfe";
+
+    private final CertificateManager.KeyMaterial material = carregarMaterial();
+    private final XmlSignatureService service = new XmlSignatureService(new CertificateManagerFixo(material));
+    private final Emitente emitente = emitente();
+
+    @AfterEach
+    void encerrar() {
+        service.shutdown();
+    }
+
+    @Test
+    void loteComVariasNotasTemCadaInfNFeAssinadoEValido() throws Exception {
+        Document assinado = parse(service.signBatch(lote(5), emitente));
+
+        NodeList assinaturas = assinado.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        assertEquals(5, assinaturas.getLength());
+        for (int i = 0; i < assinaturas.getLength(); i++) {
+            Element assinatura = (Element) assinaturas.item(i);
+            Element nfe = (Element) assinatura.getParentNode();
+            Element infNFe = (Element) nfe.getElementsByTagNameNS(NFE_NS, "infNFe").item(0);
+
+            DOMValidateContext context = validateContext(assinatura);
+            XMLSignature signature = unmarshal(context);
+            assertEquals("#" + infNFe.getAttribute("Id"), signature.getSignedInfo().getReferences().get(0).getURI());
+            assertTrue(signature.validate(context), "assinatura inválida em " + infNFe.getAttribute("Id"));
+        }
+    }
+
+    @Test
+    void loteComUmaNotaTemAssinaturaValida() throws Exception {
+        Document assinado = parse(service.signBatch(lote(1), emitente));
+
+        NodeList assinaturas = assinado.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        assertEquals(1, assinaturas.getLength());
+        assertTrue(valida((Element) assinaturas.item(0)));
+    }
+
+    @Test
+    void alteracaoDeUmaNotaAssinadaInvalidaSomenteASuaAssinatura() throws Exception {
+        Document assinado = parse(service.signBatch(lote(3), emitente));
+
+        // Altera o conteúdo da segunda nota depois da assinatura
+        Element cNF = (Element) assinado.getElementsByTagNameNS(NFE_NS, "cNF").item(1);
+        cNF.setTextContent("99999999");
+
+        NodeList assinaturas = assinado.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        for (int i = 0; i < assinaturas.getLength(); i++) {
+            boolean valida = valida((Element) assinaturas.item(i));
+            if (i == 1) {
+                assertFalse(valida, "assinatura da nota alterada deveria ser inválida");
+            } else {
+                assertTrue(valida, "assinatura da nota " + i + " deveria continuar válida");
+            }
+        }
+    }
+
+    private static String lote(int notas) {
+        StringBuilder xml = new StringBuilder("<enviNFe xmlns=\"" + NFE_NS + "\" versao=\"4.00\"><idLote>1</idLote><indSinc>0</indSinc>");
+        for (int i = 1; i <= notas; i++) {
+            String chave = String.format("352401000000000001915500100000000%d1%09d", i % 10, i);
+            xml.append("<NFe><infNFe Id=\"NFe").append(chave).append("\" versao=\"4.00\">")
+                    .append("<ide><cUF>35</cUF><cNF>").append(String.format("%08d", i)).append("</cNF><natOp>VENDA</natOp></ide>")
+                    .append("<emit><CNPJ>00000000000191</CNPJ><xNome>EMITENTE TESTE &amp; CIA</xNome></emit>")
+                    .append("</infNFe></NFe>");
+        }
+        return xml.append("</enviNFe>").toString();
+    }
+
+    private static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document doc = dbf.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        NodeList infNFes = doc.getElementsByTagNameNS(NFE_NS, "infNFe");
+        for (int i = 0; i < infNFes.getLength(); i++) {
+            ((Element) infNFes.item(i)).setIdAttribute("Id", true);
+        }
+        return doc;
+    }
+
+    private boolean valida(Element assinatura) throws Exception {
+        DOMValidateContext context = validateContext(assinatura);
+        return unmarshal(context).validate(context);
+    }
+
+    private static XMLSignature unmarshal(DOMValidateContext context) throws Exception {
+        return XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(context);
+    }
+
+    private DOMValidateContext validateContext(Element assinatura) {
+        DOMValidateContext context = new DOMValidateContext(material.certificate().getPublicKey(), assinatura);
+        // O leiaute da SEFAZ exige RSA-SHA1, recusado pela validação segura padrão do JDK
+        context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.FALSE);
+        return context;
+    }
+
+    private static Emitente emitente() {
+        Emitente emitente = new Emitente();
+        emitente.setCnpj("00000000000191");
+        emitente.setUf("SP");
+        return emitente;
+    }
+
+    private static CertificateManager.KeyMaterial carregarMaterial() {
+        try (InputStream in = XmlSignatureServiceTest.class.getResourceAsStream("/certificados/certificado-teste.p12")) {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(in, SENHA.toCharArray());
+            String alias = keyStore.aliases().nextElement();
+            List<X509Certificate> chain = new ArrayList<>();
+            for (Certificate certificate : keyStore.getCertificateChain(alias)) {
+                chain.add((X509Certificate) certificate);
+            }
+            PrivateKey privateKey = (PrivateKey) keyStore.getKey(alias, SENHA.toCharArray());
+            return new CertificateManager.KeyMaterial("00000000000191", privateKey, List.copyOf(chain), null, null);
+        } catch (Exception e) {
+            throw new IllegalStateException("Falha ao carregar o certificado de teste", e);
+        }
+    }
+
+    /**
+     * CertificateManager que sempre devolve o material de teste, sem ler arquivos nem montar SSLContext.
+     */
+    private static class CertificateManagerFixo extends CertificateManager {
+        private final KeyMaterial material;
+
+        private CertificateManagerFixo(KeyMaterial material) {
+            super(null, null, null, null, false, 1);
+            this.material = material;
+        }
+
+        @Override
+        public KeyMaterial get(Emitente emitente) {
+            return material;
+        }
+    }
+}
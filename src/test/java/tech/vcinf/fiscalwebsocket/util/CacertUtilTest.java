@@ -0,0 +1,191 @@
+package tech.vcinf.fiscalwebsocket.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Atualização das cadeias contra servidores TLS locais no lugar dos hosts SEFAZ ({@code localhost:porta}).
+ */
+class CacertUtilTest {
+
+    private static final String SENHA = "teste123";
+    private static final int TIMEOUT_MS = 5000;
+
+    private final List<ServidorTls> servidores = new ArrayList<>();
+
+    @AfterEach
+    void encerrar() {
+        servidores.forEach(ServidorTls::close);
+    }
+
+    @Test
+    void extraiACadeiaApresentadaPeloServidor() throws Exception {
+        ServidorTls servidor = iniciar("servidor-ac.p12", 0);
+
+        X509Certificate[] chain = CacertUtil.extrairCadeia(servidor.hostPorta(), TIMEOUT_MS);
+
+        assertEquals(2, chain.length);
+        assertEquals(cadeia("servidor-ac.p12")[0], chain[0]);
+        assertEquals(cadeia("servidor-ac.p12")[1], chain[1]);
+    }
+
+    @Test
+    void instalaCadeiaNovaEIgnoraCadeiaInalterada() throws Exception {
+        ServidorTls servidor = iniciar("servidor-a.p12", 0);
+        KeyStore keyStore = CacertUtil.loadTrustStore(null, false);
+
+        CacertUtil.ResultadoAtualizacao primeira = atualizar(keyStore, servidor);
+        assertEquals(new CacertUtil.ResultadoAtualizacao(1, 1, 0, 0), primeira);
+        assertNotNull(keyStore.getCertificateAlias(cadeia("servidor-a.p12")[0]));
+
+        // Mesma cadeia: nada é regravado
+        CacertUtil.ResultadoAtualizacao segunda = atualizar(keyStore, servidor);
+        assertEquals(new CacertUtil.ResultadoAtualizacao(1, 0, 1, 0), segunda);
+        assertEquals(1, keyStore.size());
+    }
+
+    @Test
+    void recusaSubstituicaoNaoConfiavelEMantemACadeiaAnterior() throws Exception {
+        ServidorTls servidor = iniciar("servidor-a.p12", 0);
+        KeyStore keyStore = CacertUtil.loadTrustStore(null, false);
+        atualizar(keyStore, servidor);
+
+        // Outro certificado autoassinado no mesmo host:porta, sem âncora que o valide
+        int porta = servidor.porta();
+        servidor.close();
+        ServidorTls impostor = iniciar("servidor-b.p12", porta);
+
+        CacertUtil.ResultadoAtualizacao resultado = atualizar(keyStore, impostor);
+
+        assertEquals(new CacertUtil.ResultadoAtualizacao(1, 0, 0, 1), resultado);
+        assertNotNull(keyStore.getCertificateAlias(cadeia("servidor-a.p12")[0]));
+        assertNull(keyStore.getCertificateAlias(cadeia("servidor-b.p12")[0]));
+    }
+
+    @Test
+    void aceitaSubstituicaoQueValidaContraAsAncoras() throws Exception {
+        ServidorTls servidor = iniciar("servidor-a.p12", 0);
+        KeyStore keyStore = CacertUtil.loadTrustStore(null, false);
+        X509Certificate raiz = cadeia("servidor-ac.p12")[1];
+        keyStore.setCertificateEntry("icp-brasil-teste", raiz);
+        atualizar(keyStore, servidor);
+
+        // Certificado renovado, emitido pela AC já confiável
+        int porta = servidor.porta();
+        servidor.close();
+        ServidorTls renovado = iniciar("servidor-ac.p12", porta);
+
+        CacertUtil.ResultadoAtualizacao resultado = atualizar(keyStore, renovado);
+
+        assertEquals(new CacertUtil.ResultadoAtualizacao(1, 1, 0, 0), resultado);
+        assertNull(keyStore.getCertificateAlias(cadeia("servidor-a.p12")[0]));
+        assertNotNull(keyStore.getCertificateAlias(cadeia("servidor-ac.p12")[0]));
+    }
+
+    @Test
+    void hostSemRespostaContaComoFalhaSemAlterarOsDemais() throws Exception {
+        ServidorTls servidor = iniciar("servidor-a.p12", 0);
+        ServidorTls fechado = iniciar("servidor-b.p12", 0);
+        String hostFechado = fechado.hostPorta();
+        fechado.close();
+        KeyStore keyStore = CacertUtil.loadTrustStore(null, false);
+
+        CacertUtil.ResultadoAtualizacao resultado = CacertUtil.atualizarCadeiasSefaz(keyStore,
+                List.of(servidor.hostPorta(), hostFechado), 2, TIMEOUT_MS, 30000);
+
+        assertEquals(new CacertUtil.ResultadoAtualizacao(2, 1, 0, 1), resultado);
+        assertNotNull(keyStore.getCertificateAlias(cadeia("servidor-a.p12")[0]));
+    }
+
+    private static CacertUtil.ResultadoAtualizacao atualizar(KeyStore keyStore, ServidorTls servidor) throws Exception {
+        return CacertUtil.atualizarCadeiasSefaz(keyStore, List.of(servidor.hostPorta()), 1, TIMEOUT_MS, 30000);
+    }
+
+    private ServidorTls iniciar(String keyStore, int porta) throws Exception {
+        ServidorTls servidor = new ServidorTls(carregar(keyStore), porta);
+        servidores.add(servidor);
+        return servidor;
+    }
+
+    private static X509Certificate[] cadeia(String keyStore) throws Exception {
+        KeyStore ks = carregar(keyStore);
+        Certificate[] chain = ks.getCertificateChain(ks.aliases().nextElement());
+        X509Certificate[] x509 = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            x509[i] = (X509Certificate) chain[i];
+        }
+        return x509;
+    }
+
+    private static KeyStore carregar(String keyStore) throws Exception {
+        try (InputStream in = CacertUtilTest.class.getResourceAsStream("/certificados/" + keyStore)) {
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(in, SENHA.toCharArray());
+            return ks;
+        }
+    }
+
+    /**
+     * Servidor TLS local que apresenta a cadeia do KeyStore, conclui o handshake e fecha a conexão.
+     */
+    private static class ServidorTls implements AutoCloseable {
+        private final SSLServerSocket socket;
+
+        private ServidorTls(KeyStore keyStore, int porta) throws Exception {
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, SENHA.toCharArray());
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+
+            socket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket();
+            // Permite reabrir a mesma porta logo após fechar o servidor anterior
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta));
+
+            Thread.ofPlatform().daemon().name("servidor-tls-" + porta()).start(() -> {
+                while (!socket.isClosed()) {
+                    try (SSLSocket conexao = (SSLSocket) socket.accept()) {
+                        conexao.startHandshake();
+                    } catch (IOException e) {
+                        // Cliente encerrou o handshake ou o servidor foi fechado
+                    }
+                }
+            });
+        }
+
+        private int porta() {
+            return socket.getLocalPort();
+        }
+
+        private String hostPorta() {
+            return "localhost:" + porta();
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Encerrando
+            }
+        }
+    }
+}